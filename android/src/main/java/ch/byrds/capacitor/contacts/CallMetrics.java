@@ -0,0 +1,162 @@
+package ch.byrds.capacitor.contacts;
+
+import com.getcapacitor.JSObject;
+
+/**
+ * Phase timings and counters of a single plugin call. Calls without metrics get
+ * {@link #NONE}, whose methods return without reading the clock.
+ */
+class CallMetrics {
+
+    enum Phase {
+        QUERY("queryMs"),
+        ITERATE("iterateMs"),
+        SERIALIZE("serializeMs"),
+        RESOLVE("resolveMs"),
+        TOTAL("totalMs");
+
+        final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    static final CallMetrics NONE = new CallMetrics(null, false);
+
+    final String methodName;
+    final boolean enabled;
+
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private long rows;
+    private long contacts;
+    private long payloadBytes;
+
+    CallMetrics(String methodName, boolean enabled) {
+        this.methodName = methodName;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Start time of a phase, to be passed to {@link #stop}.
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void stop(Phase phase, long start) {
+        if (enabled) {
+            phaseNanos[phase.ordinal()] += System.nanoTime() - start;
+        }
+    }
+
+    void addRows(long count) {
+        if (enabled) {
+            rows += count;
+        }
+    }
+
+    void addContacts(long count) {
+        if (enabled) {
+            contacts += count;
+        }
+    }
+
+    /**
+     * Metrics of work split off this call, to be added back with {@link #add}.
+     */
+    CallMetrics fork() {
+        return enabled ? new CallMetrics(methodName, true) : NONE;
+    }
+
+    /**
+     * Adds the phase times and counters of forked metrics. Phases that ran in
+     * parallel are summed, so they may exceed the total time of the call.
+     */
+    void add(CallMetrics other) {
+        if (enabled && other != this) {
+            for (int i = 0; i < phaseNanos.length; i++) {
+                phaseNanos[i] += other.phaseNanos[i];
+            }
+            rows += other.rows;
+            contacts += other.contacts;
+        }
+    }
+
+    /**
+     * Records the size of the result as sent over the bridge, serializing it once
+     * more unless the size was already recorded with {@link #setPayloadBytes}.
+     */
+    void setPayload(JSObject result) {
+        // a serialized result has at least two bytes, zero means not recorded
+        if (enabled && result != null && payloadBytes == 0) {
+            payloadBytes = utf8Length(result.toString());
+        }
+    }
+
+    /**
+     * Records the size of a result that was serialized by the call anyway.
+     */
+    void setPayloadBytes(long bytes) {
+        if (enabled) {
+            payloadBytes = bytes;
+        }
+    }
+
+    /**
+     * Length of the string encoded as UTF-8, without encoding it.
+     */
+    static int utf8Length(CharSequence string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    long phaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    long contacts() {
+        return contacts;
+    }
+
+    long payloadBytes() {
+        return payloadBytes;
+    }
+
+    /**
+     * The metrics known before the call is resolved, the resolve phase excluded.
+     */
+    JSObject toJSObject() {
+        JSObject jsMetrics = new JSObject();
+        for (Phase phase : Phase.values()) {
+            if (phase != Phase.RESOLVE) {
+                jsMetrics.put(phase.key, millis(phaseNanos(phase)));
+            }
+        }
+        jsMetrics.put("rows", rows);
+        jsMetrics.put("contacts", contacts);
+        jsMetrics.put("payloadBytes", payloadBytes);
+        return jsMetrics;
+    }
+
+    static double millis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
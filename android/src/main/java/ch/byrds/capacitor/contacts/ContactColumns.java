@@ -0,0 +1,134 @@
+package ch.byrds.capacitor.contacts;
+
+import android.util.Base64;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Columnar encoding of contacts: one array per field instead of one object per
+ * contact, so keys are not repeated per contact. Phone numbers and emails are
+ * flattened with a count per contact. Labels and organizations, which repeat
+ * across contacts, are indices into a string dictionary, -1 if not set.
+ * Columns of fields that were not requested are left out.
+ */
+class ContactColumns {
+
+    static final String FORMAT = "columnar";
+
+    private final boolean phoneNumbers;
+    private final boolean emails;
+    private final boolean birthdays;
+    private final boolean organizations;
+    private final boolean photos;
+
+    private final Map<String, Integer> stringIndices = new HashMap<>();
+    private final JSArray strings = new JSArray();
+
+    private final JSArray contactIds = new JSArray();
+    private final JSArray displayNames = new JSArray();
+    private final JSArray phoneCounts = new JSArray();
+    private final JSArray phoneLabels = new JSArray();
+    private final JSArray phoneValues = new JSArray();
+    private final JSArray emailCounts = new JSArray();
+    private final JSArray emailLabels = new JSArray();
+    private final JSArray emailValues = new JSArray();
+    private final JSArray birthdayValues = new JSArray();
+    private final JSArray organizationNames = new JSArray();
+    private final JSArray organizationRoles = new JSArray();
+    private final JSArray photoThumbnails = new JSArray();
+
+    private int size;
+
+    ContactColumns(ContactsQuery query) {
+        this.phoneNumbers = query.hasField(ContactsQuery.FIELD_PHONE_NUMBERS);
+        this.emails = query.hasField(ContactsQuery.FIELD_EMAILS);
+        this.birthdays = query.hasField(ContactsQuery.FIELD_BIRTHDAY);
+        this.organizations = query.hasField(ContactsQuery.FIELD_ORGANIZATION);
+        this.photos = query.hasField(ContactsQuery.FIELD_PHOTO);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(ContactRecord contact) {
+        size++;
+        contactIds.put(contact.contactId);
+        displayNames.put(contact.displayName);
+
+        if (phoneNumbers) {
+            phoneCounts.put(contact.phoneNumbers.size());
+            for (ContactRecord.LabeledValue phoneNumber : contact.phoneNumbers) {
+                phoneLabels.put(indexOf(Contacts.mapPhoneTypeToLabel(phoneNumber.type, phoneNumber.label)));
+                phoneValues.put(phoneNumber.value);
+            }
+        }
+        if (emails) {
+            emailCounts.put(contact.emails.size());
+            for (ContactRecord.LabeledValue email : contact.emails) {
+                emailLabels.put(indexOf(Contacts.mapEmailTypeToLabel(email.type, email.label)));
+                emailValues.put(email.value);
+            }
+        }
+        if (birthdays) {
+            birthdayValues.put(contact.birthday);
+        }
+        if (organizations) {
+            organizationNames.put(contact.hasOrganization ? indexOf(contact.organizationName) : -1);
+            organizationRoles.put(contact.hasOrganization ? indexOf(contact.organizationRole) : -1);
+        }
+        if (photos) {
+            photoThumbnails.put(
+                    contact.photoThumbnail != null
+                            ? "data:image/png;base64," + Base64.encodeToString(contact.photoThumbnail, Base64.NO_WRAP)
+                            : null
+            );
+        }
+    }
+
+    JSObject toJSObject() {
+        JSObject jsColumns = new JSObject();
+        jsColumns.put("size", size);
+        jsColumns.put("strings", strings);
+        jsColumns.put("contactIds", contactIds);
+        jsColumns.put("displayNames", displayNames);
+        if (phoneNumbers) {
+            jsColumns.put("phoneCounts", phoneCounts);
+            jsColumns.put("phoneLabels", phoneLabels);
+            jsColumns.put("phoneNumbers", phoneValues);
+        }
+        if (emails) {
+            jsColumns.put("emailCounts", emailCounts);
+            jsColumns.put("emailLabels", emailLabels);
+            jsColumns.put("emailAddresses", emailValues);
+        }
+        if (birthdays) {
+            jsColumns.put("birthdays", birthdayValues);
+        }
+        if (organizations) {
+            jsColumns.put("organizationNames", organizationNames);
+            jsColumns.put("organizationRoles", organizationRoles);
+        }
+        if (photos) {
+            jsColumns.put("photoThumbnails", photoThumbnails);
+        }
+        return jsColumns;
+    }
+
+    private int indexOf(String string) {
+        if (string == null) {
+            return -1;
+        }
+        Integer index = stringIndices.get(string);
+        if (index == null) {
+            index = strings.length();
+            stringIndices.put(string, index);
+            strings.put(string);
+        }
+        return index;
+    }
+}
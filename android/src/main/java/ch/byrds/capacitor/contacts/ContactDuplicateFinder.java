@@ -0,0 +1,286 @@
+package ch.byrds.capacitor.contacts;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds candidate duplicates in one pass over the Data table. Every contact is
+ * put into a bucket per normalized phone number, email address and display
+ * name, and contacts sharing a bucket are joined into one cluster, so the cost
+ * is linear in the number of rows instead of comparing every pair of contacts.
+ */
+class ContactDuplicateFinder {
+
+    static final String STRATEGY_ALL = "all";
+    static final String STRATEGY_PHONE = "phone";
+    static final String STRATEGY_EMAIL = "email";
+    static final String STRATEGY_NAME = "name";
+
+    /**
+     * Trailing digits compared of a phone number, enough to tell numbers apart
+     * while matching numbers written with and without country code or trunk prefix.
+     */
+    static final int PHONE_KEY_DIGITS = 9;
+
+    /**
+     * Shorter numbers, e.g. service numbers, are not compared.
+     */
+    private static final int MIN_PHONE_DIGITS = 7;
+
+    /**
+     * Contacts sharing one normalized value.
+     */
+    private static class Bucket {
+
+        final String type;
+        final String value;
+        final int first;
+        int last;
+        int size = 1;
+
+        Bucket(String type, String value, int first) {
+            this.type = type;
+            this.value = value;
+            this.first = first;
+            this.last = first;
+        }
+    }
+
+    private final ContentResolver contentResolver;
+    private final CancellationSignal signal;
+    private final CallMetrics metrics;
+
+    private final Map<String, Bucket> phoneBuckets = new HashMap<>();
+    private final Map<String, Bucket> emailBuckets = new HashMap<>();
+    private final Map<String, Bucket> nameBuckets = new HashMap<>();
+
+    // contacts by index in cursor order, and the union-find parent of each index
+    private long[] contactIds = new long[256];
+    private int[] parents = new int[256];
+    private int contactCount;
+
+    ContactDuplicateFinder(ContentResolver contentResolver, CancellationSignal signal, CallMetrics metrics) {
+        this.contentResolver = contentResolver;
+        this.signal = signal;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param strategy compared values, one of the STRATEGY constants
+     * @return clusters of at least two contacts, with the values they share
+     */
+    JSObject findDuplicates(String strategy) {
+        boolean phones = STRATEGY_ALL.equals(strategy) || STRATEGY_PHONE.equals(strategy);
+        boolean emails = STRATEGY_ALL.equals(strategy) || STRATEGY_EMAIL.equals(strategy);
+        boolean names = STRATEGY_ALL.equals(strategy) || STRATEGY_NAME.equals(strategy);
+        if (!phones && !emails && !names) {
+            throw new IllegalArgumentException("Unknown strategy " + strategy);
+        }
+
+        List<String> fields = new ArrayList<>(2);
+        if (phones) {
+            fields.add(ContactsQuery.FIELD_PHONE_NUMBERS);
+        }
+        if (emails) {
+            fields.add(ContactsQuery.FIELD_EMAILS);
+        }
+        ContactsQuery query = ContactsQuery.forFields(fields, names);
+
+        long start = metrics.start();
+        Cursor cursor = contentResolver.query(
+                ContactsContract.Data.CONTENT_URI,
+                query.projection,
+                query.selection,
+                query.selectionArgs,
+                ContactsContract.Data.CONTACT_ID + " ASC",
+                signal
+        );
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+
+        if (cursor != null) {
+            try {
+                ContactRowDecoder decoder = new ContactRowDecoder(cursor);
+                start = metrics.start();
+                ContactRecord contact;
+                while ((contact = decoder.nextContact()) != null) {
+                    signal.throwIfCanceled();
+                    int index = addContact(contact.contactId);
+                    if (phones) {
+                        for (ContactRecord.LabeledValue phoneNumber : contact.phoneNumbers) {
+                            add(phoneBuckets, STRATEGY_PHONE, phoneKey(phoneNumber.value), phoneNumber.value, index);
+                        }
+                    }
+                    if (emails) {
+                        for (ContactRecord.LabeledValue email : contact.emails) {
+                            add(emailBuckets, STRATEGY_EMAIL, emailKey(email.value), email.value, index);
+                        }
+                    }
+                    if (names) {
+                        add(nameBuckets, STRATEGY_NAME, nameKey(contact.displayName), contact.displayName, index);
+                    }
+                }
+                metrics.stop(CallMetrics.Phase.ITERATE, start);
+                metrics.addRows(decoder.rowCount());
+                metrics.addContacts(contactCount);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        start = metrics.start();
+        JSObject result = new JSObject();
+        result.put("clusters", clusters());
+        metrics.stop(CallMetrics.Phase.SERIALIZE, start);
+        return result;
+    }
+
+    private int addContact(long contactId) {
+        if (contactCount == contactIds.length) {
+            contactIds = Arrays.copyOf(contactIds, contactCount * 2);
+            parents = Arrays.copyOf(parents, contactCount * 2);
+        }
+        contactIds[contactCount] = contactId;
+        parents[contactCount] = contactCount;
+        return contactCount++;
+    }
+
+    private void add(Map<String, Bucket> buckets, String type, String key, String value, int index) {
+        if (key == null) {
+            return;
+        }
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            buckets.put(key, new Bucket(type, value, index));
+        } else if (bucket.last != index) {
+            // a contact with the same value twice is no duplicate of itself
+            bucket.last = index;
+            bucket.size++;
+            union(bucket.first, index);
+        }
+    }
+
+    private JSArray clusters() {
+        // clusters by their first contact, so they are ordered by contact id
+        TreeMap<Integer, JSArray> reasons = new TreeMap<>();
+        addReasons(reasons, phoneBuckets);
+        addReasons(reasons, emailBuckets);
+        addReasons(reasons, nameBuckets);
+
+        Map<Integer, JSArray> members = new HashMap<>();
+        for (int index = 0; index < contactCount; index++) {
+            int root = find(index);
+            if (!reasons.containsKey(root)) {
+                continue;
+            }
+            JSArray jsContactIds = members.get(root);
+            if (jsContactIds == null) {
+                jsContactIds = new JSArray();
+                members.put(root, jsContactIds);
+            }
+            jsContactIds.put(String.valueOf(contactIds[index]));
+        }
+
+        JSArray jsClusters = new JSArray();
+        for (Map.Entry<Integer, JSArray> entry : reasons.entrySet()) {
+            JSObject jsCluster = new JSObject();
+            jsCluster.put("contactIds", members.get(entry.getKey()));
+            jsCluster.put("reasons", entry.getValue());
+            jsClusters.put(jsCluster);
+        }
+        return jsClusters;
+    }
+
+    private void addReasons(Map<Integer, JSArray> reasons, Map<String, Bucket> buckets) {
+        for (Bucket bucket : buckets.values()) {
+            if (bucket.size < 2) {
+                continue;
+            }
+            int root = find(bucket.first);
+            JSArray jsReasons = reasons.get(root);
+            if (jsReasons == null) {
+                jsReasons = new JSArray();
+                reasons.put(root, jsReasons);
+            }
+            JSObject jsReason = new JSObject();
+            jsReason.put("type", bucket.type);
+            jsReason.put("value", bucket.value);
+            jsReason.put("count", bucket.size);
+            jsReasons.put(jsReason);
+        }
+    }
+
+    private int find(int index) {
+        while (parents[index] != index) {
+            // path halving
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA != rootB) {
+            // the lower index stays root, it is the first contact of the cluster
+            parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    /**
+     * The trailing digits of a phone number, null if too short to compare.
+     */
+    static String phoneKey(String phoneNumber) {
+        String digits = ContactsSearchIndex.digitsOf(phoneNumber);
+        int start = 0;
+        while (start < digits.length() && digits.charAt(start) == '0') {
+            start++;
+        }
+        if (digits.length() - start < MIN_PHONE_DIGITS) {
+            return null;
+        }
+        return digits.substring(Math.max(start, digits.length() - PHONE_KEY_DIGITS));
+    }
+
+    static String emailKey(String address) {
+        if (address == null) {
+            return null;
+        }
+        String key = address.trim().toLowerCase(Locale.ROOT);
+        return key.isEmpty() ? null : key;
+    }
+
+    /**
+     * The name tokens without diacritics in sorted order, so "Doe, John" matches
+     * "John Doe". Null for names without letters, e.g. the phone number that
+     * is the display name of a contact without name.
+     */
+    static String nameKey(String displayName) {
+        String[] tokens = ContactsSearchIndex.tokenize(ContactsSearchIndex.normalize(displayName));
+        boolean hasLetter = false;
+        for (String token : tokens) {
+            for (int i = 0; i < token.length() && !hasLetter; i++) {
+                hasLetter = Character.isLetter(token.charAt(i));
+            }
+        }
+        if (!hasLetter || (displayName != null && displayName.indexOf('@') != -1)) {
+            // no name, or the email address shown for a contact without name
+            return null;
+        }
+        Arrays.sort(tokens);
+        return String.join(" ", tokens);
+    }
+}
@@ -0,0 +1,200 @@
+package ch.byrds.capacitor.contacts;
+
+import static android.provider.ContactsContract.Data.MIMETYPE;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Event;
+import android.provider.ContactsContract.CommonDataKinds.Organization;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.Photo;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes a content hash per contact in one pass over the Data table, so a
+ * backend can find the changed contacts without reading them all.
+ *
+ * The hash covers the name, phone, email, organization and birthday rows and
+ * the identity of the photo, not its bytes. Rows are hashed in sorted order,
+ * so the hash does not depend on the order the provider returns them in.
+ */
+class ContactFingerprinter {
+
+    /**
+     * Bytes of the SHA-256 digest kept, 128 bits are plenty to detect changes.
+     */
+    static final int HASH_BYTES = 16;
+
+    private static final String[] MIME_TYPES = new String[]{
+            StructuredName.CONTENT_ITEM_TYPE,
+            Phone.CONTENT_ITEM_TYPE,
+            Email.CONTENT_ITEM_TYPE,
+            Organization.CONTENT_ITEM_TYPE,
+            Event.CONTENT_ITEM_TYPE,
+            Photo.CONTENT_ITEM_TYPE
+    };
+
+    // the photo blob in DATA15 is left out, the photo is identified by its row,
+    // version and file id instead
+    private static final String[] PROJECTION = new String[]{
+            ContactsContract.Data.CONTACT_ID,
+            ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP,
+            MIMETYPE,
+            ContactsContract.Data._ID,
+            ContactsContract.Data.DATA_VERSION,
+            ContactsContract.Data.DATA1,
+            ContactsContract.Data.DATA2,
+            ContactsContract.Data.DATA3,
+            ContactsContract.Data.DATA4,
+            ContactsContract.Data.DATA5,
+            ContactsContract.Data.DATA6,
+            ContactsContract.Data.DATA14
+    };
+
+    private static final int CONTACT_ID_INDEX = 0;
+    private static final int LAST_UPDATED_INDEX = 1;
+    private static final int MIMETYPE_INDEX = 2;
+    private static final int ID_INDEX = 3;
+    private static final int VERSION_INDEX = 4;
+    private static final int DATA1_INDEX = 5;
+    private static final int EVENT_TYPE_INDEX = 6;
+    private static final int DATA6_INDEX = 10;
+    private static final int PHOTO_FILE_ID_INDEX = 11;
+
+    private static final char SEPARATOR = '\u001f';
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final ContentResolver contentResolver;
+    private final CancellationSignal signal;
+    private final CallMetrics metrics;
+    private final MessageDigest digest;
+
+    ContactFingerprinter(ContentResolver contentResolver, CancellationSignal signal, CallMetrics metrics) {
+        this.contentResolver = contentResolver;
+        this.signal = signal;
+        this.metrics = metrics;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Android version provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the fingerprints of all contacts, sorted by contact id
+     */
+    JSObject readFingerprints() {
+        JSArray jsFingerprints = new JSArray();
+
+        long start = metrics.start();
+        Cursor cursor = contentResolver.query(
+                ContactsContract.Data.CONTENT_URI,
+                PROJECTION,
+                ContactsQuery.inSelection(MIMETYPE, MIME_TYPES.length),
+                MIME_TYPES,
+                ContactsContract.Data.CONTACT_ID + " ASC",
+                signal
+        );
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+
+        if (cursor != null) {
+            try {
+                start = metrics.start();
+                List<String> rows = new ArrayList<>();
+                long contactId = -1;
+                long lastUpdated = 0;
+                while (cursor.moveToNext()) {
+                    long rowContactId = cursor.getLong(CONTACT_ID_INDEX);
+                    if (rowContactId != contactId) {
+                        if (contactId != -1) {
+                            jsFingerprints.put(fingerprint(contactId, lastUpdated, rows));
+                            rows.clear();
+                            signal.throwIfCanceled();
+                        }
+                        contactId = rowContactId;
+                        lastUpdated = cursor.getLong(LAST_UPDATED_INDEX);
+                    }
+                    String row = rowKey(cursor);
+                    if (row != null) {
+                        rows.add(row);
+                    }
+                }
+                if (contactId != -1) {
+                    jsFingerprints.put(fingerprint(contactId, lastUpdated, rows));
+                }
+                metrics.stop(CallMetrics.Phase.ITERATE, start);
+                metrics.addRows(cursor.getCount());
+                metrics.addContacts(jsFingerprints.length());
+            } finally {
+                cursor.close();
+            }
+        }
+
+        JSObject result = new JSObject();
+        result.put("fingerprints", jsFingerprints);
+        return result;
+    }
+
+    private JSObject fingerprint(long contactId, long lastUpdated, List<String> rows) {
+        JSObject jsFingerprint = new JSObject();
+        jsFingerprint.put(Contacts.CONTACT_ID, String.valueOf(contactId));
+        jsFingerprint.put("hash", hash(rows));
+        jsFingerprint.put("lastUpdated", lastUpdated);
+        return jsFingerprint;
+    }
+
+    private String hash(List<String> rows) {
+        Collections.sort(rows);
+        digest.reset();
+        for (String row : rows) {
+            digest.update(row.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+        byte[] hash = digest.digest();
+        char[] hex = new char[HASH_BYTES * 2];
+        for (int i = 0; i < HASH_BYTES; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * The hashed values of a row, null if the row is not part of the hash.
+     */
+    private static String rowKey(Cursor cursor) {
+        String mimeType = cursor.getString(MIMETYPE_INDEX);
+        StringBuilder row = new StringBuilder(mimeType);
+        if (Photo.CONTENT_ITEM_TYPE.equals(mimeType)) {
+            row.append(SEPARATOR).append(cursor.getLong(ID_INDEX))
+                    .append(SEPARATOR).append(cursor.getLong(VERSION_INDEX))
+                    .append(SEPARATOR).append(cursor.getLong(PHOTO_FILE_ID_INDEX));
+            return row.toString();
+        }
+        if (Event.CONTENT_ITEM_TYPE.equals(mimeType) && cursor.getInt(EVENT_TYPE_INDEX) != Event.TYPE_BIRTHDAY) {
+            return null;
+        }
+        for (int i = DATA1_INDEX; i <= DATA6_INDEX; i++) {
+            String value = cursor.getString(i);
+            row.append(SEPARATOR);
+            if (value != null) {
+                row.append(value);
+            }
+        }
+        return row.toString();
+    }
+}
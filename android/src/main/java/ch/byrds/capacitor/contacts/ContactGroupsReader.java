@@ -0,0 +1,303 @@
+package ch.byrds.capacitor.contacts;
+
+import static android.provider.ContactsContract.Data.MIMETYPE;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
+import android.util.LongSparseArray;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads group memberships restricted to the given groups and contacts, with
+ * the filters applied in the provider selection, or the group filter in memory
+ * if both are given. Memberships are grouped by
+ * contact id in a {@link LongSparseArray} of group id arrays.
+ */
+class ContactGroupsReader {
+
+    private final ContentResolver contentResolver;
+    private final CancellationSignal signal;
+    private final CallMetrics metrics;
+
+    ContactGroupsReader(ContentResolver contentResolver, CancellationSignal signal, CallMetrics metrics) {
+        this.contentResolver = contentResolver;
+        this.signal = signal;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Reads the getContactGroups result, the group ids keyed by contact id, or
+     * with includeGroups the memberships together with the groups they refer to.
+     */
+    JSObject readContactGroups(List<String> groupIds, List<String> contactIds, boolean includeGroups) {
+        LongSparseArray<long[]> memberships = readMemberships(groupIds, contactIds);
+        metrics.addContacts(memberships.size());
+
+        long start = metrics.start();
+        JSObject jsMemberships = new JSObject();
+        for (int i = 0; i < memberships.size(); i++) {
+            JSArray jsGroups = new JSArray();
+            for (long groupId : memberships.valueAt(i)) {
+                jsGroups.put(String.valueOf(groupId));
+            }
+            jsMemberships.put(String.valueOf(memberships.keyAt(i)), jsGroups);
+        }
+        metrics.stop(CallMetrics.Phase.SERIALIZE, start);
+
+        if (!includeGroups) {
+            return jsMemberships;
+        }
+
+        if (groupIds == null && contactIds != null) {
+            groupIds = groupIdsOf(memberships);
+        }
+        JSObject result = new JSObject();
+        result.put("groups", readGroups(groupIds));
+        result.put("memberships", jsMemberships);
+        return result;
+    }
+
+    /**
+     * @param groupIds   groups to read the members of, null for all groups
+     * @param contactIds contacts to read the groups of, null for all contacts
+     * @return group ids by contact id, ordered by contact id
+     */
+    LongSparseArray<long[]> readMemberships(List<String> groupIds, List<String> contactIds) {
+        // with both filters only the contacts are selected by the provider, so a
+        // query binds at most one chunk of ids, and the groups of those contacts
+        // are filtered while reading
+        Set<String> groupFilter = null;
+        if (groupIds != null && contactIds != null) {
+            groupFilter = new HashSet<>(groupIds);
+            groupIds = null;
+        }
+
+        LongSparseArray<long[]> memberships = new LongSparseArray<>();
+        for (List<String> groupChunk : chunks(groupIds)) {
+            for (List<String> contactChunk : chunks(contactIds)) {
+                readMemberships(memberships, groupChunk, contactChunk, groupFilter);
+            }
+        }
+        return memberships;
+    }
+
+    /**
+     * @param groupFilter groups to keep the memberships of, null for all groups
+     */
+    private void readMemberships(LongSparseArray<long[]> memberships, List<String> groupIds, List<String> contactIds, Set<String> groupFilter) {
+        StringBuilder selection = new StringBuilder(MIMETYPE + "=?");
+        List<String> selectionArgs = new ArrayList<>();
+        selectionArgs.add(GroupMembership.CONTENT_ITEM_TYPE);
+        if (groupIds != null) {
+            selection.append(" AND ").append(ContactsQuery.inSelection(GroupMembership.GROUP_ROW_ID, groupIds.size()));
+            selectionArgs.addAll(groupIds);
+        }
+        if (contactIds != null) {
+            selection.append(" AND ").append(ContactsQuery.inSelection(ContactsContract.Data.CONTACT_ID, contactIds.size()));
+            selectionArgs.addAll(contactIds);
+        }
+
+        // sorted by contact id, new contacts are appended to the end of the array
+        long start = metrics.start();
+        Cursor cursor = contentResolver.query(
+                ContactsContract.Data.CONTENT_URI,
+                new String[]{ContactsContract.Data.CONTACT_ID, GroupMembership.GROUP_ROW_ID},
+                selection.toString(),
+                selectionArgs.toArray(new String[0]),
+                ContactsContract.Data.CONTACT_ID + " ASC",
+                signal
+        );
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+        if (cursor == null) {
+            return;
+        }
+        start = metrics.start();
+        try {
+            while (cursor.moveToNext()) {
+                long contactId = cursor.getLong(0);
+                long groupId = cursor.getLong(1);
+                if (groupFilter != null && !groupFilter.contains(String.valueOf(groupId))) {
+                    continue;
+                }
+                long[] groups = memberships.get(contactId);
+                if (groups == null) {
+                    memberships.append(contactId, new long[]{groupId});
+                } else if (!contains(groups, groupId)) {
+                    // a contact is in a group once per raw contact, usually a single one
+                    long[] grown = new long[groups.length + 1];
+                    System.arraycopy(groups, 0, grown, 0, groups.length);
+                    grown[groups.length] = groupId;
+                    memberships.put(contactId, grown);
+                }
+            }
+            metrics.addRows(cursor.getCount());
+        } finally {
+            cursor.close();
+            metrics.stop(CallMetrics.Phase.ITERATE, start);
+        }
+    }
+
+    /**
+     * Reads all groups, deleted ones included.
+     *
+     * @param accountType groups of this account type only, null for all accounts
+     * @param accountName groups of this account name only, null for all accounts
+     * @param visibleOnly groups whose members are shown in contact lists only
+     */
+    JSArray readAllGroups(String accountType, String accountName, boolean visibleOnly) {
+        List<String> selection = new ArrayList<>(3);
+        List<String> selectionArgs = new ArrayList<>(2);
+        if (accountType != null) {
+            selection.add(ContactsContract.Groups.ACCOUNT_TYPE + "=?");
+            selectionArgs.add(accountType);
+        }
+        if (accountName != null) {
+            selection.add(ContactsContract.Groups.ACCOUNT_NAME + "=?");
+            selectionArgs.add(accountName);
+        }
+        if (visibleOnly) {
+            selection.add(ContactsContract.Groups.GROUP_VISIBLE + "=1");
+        }
+
+        JSArray jsGroups = new JSArray();
+        long start = metrics.start();
+        Cursor cursor = contentResolver.query(
+                ContactsContract.Groups.CONTENT_URI,
+                new String[]{
+                        ContactsContract.Groups._ID,
+                        ContactsContract.Groups.ACCOUNT_TYPE,
+                        ContactsContract.Groups.ACCOUNT_NAME,
+                        ContactsContract.Groups.TITLE
+                },
+                selection.isEmpty() ? null : String.join(" AND ", selection),
+                selectionArgs.isEmpty() ? null : selectionArgs.toArray(new String[0]),
+                null,
+                signal
+        );
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+        if (cursor == null) {
+            return jsGroups;
+        }
+        start = metrics.start();
+        try {
+            while (cursor.moveToNext()) {
+                JSObject jsGroup = new JSObject();
+                jsGroup.put("groupId", cursor.getString(0));
+                jsGroup.put("accountType", cursor.getString(1));
+                jsGroup.put("accountName", cursor.getString(2));
+                jsGroup.put("title", cursor.getString(3));
+                jsGroups.put(jsGroup);
+            }
+            metrics.addRows(cursor.getCount());
+        } finally {
+            cursor.close();
+            metrics.stop(CallMetrics.Phase.ITERATE, start);
+        }
+        return jsGroups;
+    }
+
+    /**
+     * Reads the given groups with the number of contacts in each.
+     *
+     * @param groupIds groups to read, null for all groups
+     */
+    JSArray readGroups(List<String> groupIds) {
+        JSArray jsGroups = new JSArray();
+        for (List<String> groupChunk : chunks(groupIds)) {
+            String selection = ContactsContract.Groups.DELETED + "=0";
+            String[] selectionArgs = null;
+            if (groupChunk != null) {
+                selection += " AND " + ContactsQuery.inSelection(ContactsContract.Groups._ID, groupChunk.size());
+                selectionArgs = groupChunk.toArray(new String[0]);
+            }
+            long start = metrics.start();
+            Cursor cursor = contentResolver.query(
+                    ContactsContract.Groups.CONTENT_SUMMARY_URI,
+                    new String[]{
+                            ContactsContract.Groups._ID,
+                            ContactsContract.Groups.ACCOUNT_TYPE,
+                            ContactsContract.Groups.ACCOUNT_NAME,
+                            ContactsContract.Groups.TITLE,
+                            ContactsContract.Groups.SUMMARY_COUNT
+                    },
+                    selection,
+                    selectionArgs,
+                    ContactsContract.Groups._ID + " ASC",
+                    signal
+            );
+            metrics.stop(CallMetrics.Phase.QUERY, start);
+            if (cursor == null) {
+                continue;
+            }
+            start = metrics.start();
+            try {
+                while (cursor.moveToNext()) {
+                    JSObject jsGroup = new JSObject();
+                    jsGroup.put("groupId", cursor.getString(0));
+                    jsGroup.put("accountType", cursor.getString(1));
+                    jsGroup.put("accountName", cursor.getString(2));
+                    jsGroup.put("title", cursor.getString(3));
+                    jsGroup.put("memberCount", cursor.getInt(4));
+                    jsGroups.put(jsGroup);
+                }
+                metrics.addRows(cursor.getCount());
+            } finally {
+                cursor.close();
+                metrics.stop(CallMetrics.Phase.ITERATE, start);
+            }
+        }
+        return jsGroups;
+    }
+
+    /**
+     * Group ids referenced by the memberships, for reading the groups of a set of contacts.
+     */
+    private static List<String> groupIdsOf(LongSparseArray<long[]> memberships) {
+        LongSparseArray<Boolean> groupIds = new LongSparseArray<>();
+        for (int i = 0; i < memberships.size(); i++) {
+            for (long groupId : memberships.valueAt(i)) {
+                groupIds.put(groupId, Boolean.TRUE);
+            }
+        }
+        List<String> result = new ArrayList<>(groupIds.size());
+        for (int i = 0; i < groupIds.size(); i++) {
+            result.add(String.valueOf(groupIds.keyAt(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Splits the ids in chunks of at most {@link ContactsQuery#MAX_SELECTION_ARGS},
+     * a null list is a single null chunk meaning no filter.
+     */
+    private static List<List<String>> chunks(List<String> ids) {
+        if (ids == null) {
+            return Collections.singletonList(null);
+        }
+        List<List<String>> chunks = new ArrayList<>();
+        for (int offset = 0; offset < ids.size(); offset += ContactsQuery.MAX_SELECTION_ARGS) {
+            chunks.add(ids.subList(offset, Math.min(offset + ContactsQuery.MAX_SELECTION_ARGS, ids.size())));
+        }
+        return chunks;
+    }
+
+    private static boolean contains(long[] values, long value) {
+        for (long v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
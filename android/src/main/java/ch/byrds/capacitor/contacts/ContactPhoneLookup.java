@@ -0,0 +1,169 @@
+package ch.byrds.capacitor.contacts;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract.PhoneLookup;
+import android.util.LruCache;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves phone numbers to contacts through the PhoneLookup filter, with the
+ * matching rules of the provider. Results are cached by normalized number,
+ * numbers without a contact as well. An entry is only returned while the
+ * observer generation it was read at is still current.
+ */
+class ContactPhoneLookup implements ContactsObserver.Listener {
+
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final String[] PROJECTION = new String[]{
+            PhoneLookup._ID,
+            PhoneLookup.DISPLAY_NAME,
+            PhoneLookup.TYPE,
+            PhoneLookup.LABEL
+    };
+
+    private static class Entry {
+
+        /**
+         * -1 if no contact has the number.
+         */
+        final long contactId;
+        final String displayName;
+        final String label;
+        final long generation;
+
+        Entry(long contactId, String displayName, String label, long generation) {
+            this.contactId = contactId;
+            this.displayName = displayName;
+            this.label = label;
+            this.generation = generation;
+        }
+    }
+
+    private final ContactsObserver observer;
+    private final LruCache<String, Entry> entries;
+
+    ContactPhoneLookup(ContactsObserver observer, int maxEntries) {
+        this.observer = observer;
+        this.entries = new LruCache<>(maxEntries);
+    }
+
+    /**
+     * @return one match per number in input order, without contact if none has the number
+     */
+    JSObject lookup(ContentResolver contentResolver, List<String> numbers, CancellationSignal signal, CallMetrics metrics) {
+        // the generation is taken before the provider is read, so a change while
+        // reading is not cached
+        long generation = observer.generation();
+        Map<String, Entry> resolved = new HashMap<>();
+        int lookups = 0;
+
+        long start = metrics.start();
+        for (String number : numbers) {
+            String key = normalize(number);
+            if (key.isEmpty() || resolved.containsKey(key)) {
+                continue;
+            }
+            Entry entry = entries.get(key);
+            if (entry != null && entry.generation != observer.generation()) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                signal.throwIfCanceled();
+                entry = query(contentResolver, number, generation, signal);
+                lookups++;
+                if (generation == observer.generation()) {
+                    entries.put(key, entry);
+                }
+            }
+            resolved.put(key, entry);
+        }
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+        metrics.addRows(lookups);
+
+        start = metrics.start();
+        JSArray jsMatches = new JSArray();
+        int matched = 0;
+        for (String number : numbers) {
+            JSObject jsMatch = new JSObject();
+            jsMatch.put("number", number);
+            Entry entry = resolved.get(normalize(number));
+            if (entry != null && entry.contactId != -1) {
+                jsMatch.put(Contacts.CONTACT_ID, String.valueOf(entry.contactId));
+                jsMatch.put(Contacts.DISPLAY_NAME, entry.displayName);
+                jsMatch.put(Contacts.PHONE_LABEL, entry.label);
+                matched++;
+            }
+            jsMatches.put(jsMatch);
+        }
+        metrics.stop(CallMetrics.Phase.SERIALIZE, start);
+        metrics.addContacts(matched);
+
+        JSObject result = new JSObject();
+        result.put("matches", jsMatches);
+        return result;
+    }
+
+    private static Entry query(ContentResolver contentResolver, String number, long generation, CancellationSignal signal) {
+        Cursor cursor = contentResolver.query(
+                Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(number)),
+                PROJECTION,
+                null,
+                null,
+                null,
+                signal
+        );
+        if (cursor == null) {
+            return new Entry(-1, null, null, generation);
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return new Entry(-1, null, null, generation);
+            }
+            String label = Contacts.mapPhoneTypeToLabel(cursor.getInt(2), cursor.getString(3));
+            return new Entry(cursor.getLong(0), cursor.getString(1), label, generation);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Cache key of a number: its digits, star and hash, with a leading plus
+     * kept, so different formattings of a number share an entry. Star and hash
+     * are dialled, e.g. in service codes, so they tell numbers apart.
+     */
+    static String normalize(String number) {
+        if (number == null) {
+            return "";
+        }
+        StringBuilder key = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if ((c >= '0' && c <= '9') || c == '*' || c == '#') {
+                key.append(c);
+            } else if (c == '+' && key.length() == 0) {
+                key.append(c);
+            }
+        }
+        return key.length() == 1 && key.charAt(0) == '+' ? "" : key.toString();
+    }
+
+    void clear() {
+        entries.evictAll();
+    }
+
+    @Override
+    public void onContactsChanged() {
+        clear();
+    }
+}
@@ -0,0 +1,182 @@
+package ch.byrds.capacitor.contacts;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Contact photos loaded on demand, kept in a memory bounded LRU and in a disk cache
+ * in the app cache dir. Entries are keyed by the photo id and photo file id of the
+ * contact, so a changed photo never hits a stale entry.
+ *
+ * The files of a contact are kept in a directory of its own, so replacing a stale
+ * version only lists that directory. Files are written under a temporary name and
+ * renamed when complete, a cached file is never truncated.
+ */
+class ContactPhotoCache {
+
+    private static final String DIRECTORY = "contact_photos";
+    private static final int MEMORY_CACHE_BYTES = 4 * 1024 * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final ContentResolver contentResolver;
+    private final File directory;
+    private final LruCache<String, byte[]> memoryCache;
+
+    ContactPhotoCache(Context context) {
+        this.contentResolver = context.getContentResolver();
+        this.directory = new File(context.getCacheDir(), DIRECTORY);
+        this.memoryCache = new LruCache<String, byte[]>(MEMORY_CACHE_BYTES) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    /**
+     * Version of a contact photo as stored in the Contacts table.
+     */
+    static String photoVersion(long photoId, long photoFileId) {
+        return photoId + "-" + photoFileId;
+    }
+
+    /**
+     * Returns the photo bytes, or null if the contact has no photo.
+     */
+    byte[] getPhoto(long contactId, String photoVersion, boolean highRes) throws IOException {
+        String key = cacheKey(contactId, photoVersion, highRes);
+        byte[] photo = memoryCache.get(key);
+        if (photo != null) {
+            return photo;
+        }
+
+        File file = photoFile(contactId, photoVersion, highRes);
+        if (file.exists()) {
+            photo = readFully(new FileInputStream(file));
+        } else {
+            photo = loadPhoto(contactId, highRes);
+            if (photo == null) {
+                return null;
+            }
+            writeFile(highRes, file, photo);
+        }
+        memoryCache.put(key, photo);
+        return photo;
+    }
+
+    /**
+     * Returns the cached photo file, or null if the contact has no photo.
+     */
+    File getPhotoFile(long contactId, String photoVersion, boolean highRes) throws IOException {
+        String key = cacheKey(contactId, photoVersion, highRes);
+        File file = photoFile(contactId, photoVersion, highRes);
+        if (file.exists()) {
+            return file;
+        }
+
+        byte[] photo = memoryCache.get(key);
+        if (photo == null) {
+            photo = loadPhoto(contactId, highRes);
+            if (photo == null) {
+                return null;
+            }
+        }
+        writeFile(highRes, file, photo);
+        return file;
+    }
+
+    /**
+     * Drops the memory cache, the files are left to the system cache cleanup.
+     */
+    void clearMemory() {
+        memoryCache.evictAll();
+    }
+
+    private String cacheKey(long contactId, String photoVersion, boolean highRes) {
+        return contactId + "_" + filePrefix(highRes) + photoVersion;
+    }
+
+    private File photoFile(long contactId, String photoVersion, boolean highRes) {
+        return new File(new File(directory, String.valueOf(contactId)), filePrefix(highRes) + photoVersion);
+    }
+
+    private static String filePrefix(boolean highRes) {
+        return highRes ? "full_" : "thumb_";
+    }
+
+    private byte[] loadPhoto(long contactId, boolean highRes) throws IOException {
+        Uri contactUri = ContentUris.withAppendedId(ContactsContract.Contacts.CONTENT_URI, contactId);
+        InputStream inputStream = ContactsContract.Contacts.openContactPhotoInputStream(contentResolver, contactUri, highRes);
+        if (inputStream == null) {
+            return null;
+        }
+        return readFully(inputStream);
+    }
+
+    private void writeFile(boolean highRes, File file, byte[] photo) throws IOException {
+        File contactDirectory = file.getParentFile();
+        // another thread may create the directory meanwhile
+        if (!contactDirectory.mkdirs() && !contactDirectory.isDirectory()) {
+            throw new IOException("Cannot create " + contactDirectory);
+        }
+
+        // a temporary file per writer, two threads loading the same photo do not
+        // write into the same file
+        File tempFile = File.createTempFile(file.getName(), TEMP_SUFFIX, contactDirectory);
+        try {
+            OutputStream outputStream = new FileOutputStream(tempFile);
+            try {
+                outputStream.write(photo);
+            } finally {
+                outputStream.close();
+            }
+            // fails if another thread stored the same version meanwhile, which is as good
+            if (!tempFile.renameTo(file) && !file.exists()) {
+                throw new IOException("Cannot write " + file);
+            }
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+
+        // older versions of this photo are stale now, temporary files of other writers
+        // are left alone
+        String prefix = filePrefix(highRes);
+        File[] files = contactDirectory.listFiles();
+        if (files != null) {
+            for (File stale : files) {
+                String name = stale.getName();
+                if (name.startsWith(prefix) && !name.endsWith(TEMP_SUFFIX) && !stale.equals(file)) {
+                    stale.delete();
+                }
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+            return baos.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package ch.byrds.capacitor.contacts;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract;
+import android.util.Base64;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns the image of a saved contact, a URL, a data: URL or plain Base64,
+ * into the bytes inserted as {@code Photo.PHOTO}, downscaled to the
+ * thumbnail size of the provider. URLs are downloaded in parallel on a small
+ * pool. Downscaled photos are cached by the hash of their source bytes and
+ * URLs by the hash they resolved to, so a repeated URL is not downloaded again.
+ */
+class ContactPhotoLoader {
+
+    private static final int THREADS = 4;
+    private static final int DEFAULT_THUMBNAIL_SIZE = 96;
+    private static final int JPEG_QUALITY = 90;
+    private static final int PHOTO_CACHE_BYTES = 1024 * 1024;
+    private static final int URL_CACHE_ENTRIES = 256;
+    private static final String DATA_URL_PREFIX = "data:";
+    private static final String BASE64_MARKER = ";base64,";
+
+    private final ContentResolver contentResolver;
+    private final PhotoFetcher fetcher;
+    private final ExecutorService executorService;
+    private final LruCache<String, byte[]> photosByHash;
+    private final LruCache<String, String> hashesByUrl;
+
+    private volatile int thumbnailSize;
+
+    ContactPhotoLoader(ContentResolver contentResolver, PhotoFetcher fetcher) {
+        this.contentResolver = contentResolver;
+        this.fetcher = fetcher;
+        this.executorService = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ContactPhotoLoader-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.photosByHash = new LruCache<String, byte[]>(PHOTO_CACHE_BYTES) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+        this.hashesByUrl = new LruCache<>(URL_CACHE_ENTRIES);
+    }
+
+    /**
+     * Loads the distinct images in parallel.
+     *
+     * @return the photo bytes by image, without the images that failed to load
+     */
+    Map<String, byte[]> loadAll(Collection<String> images, CancellationSignal signal) throws InterruptedException {
+        Map<String, Future<byte[]>> futures = new LinkedHashMap<>();
+        for (String image : images) {
+            if (image != null && !image.isEmpty() && !futures.containsKey(image)) {
+                futures.put(image, executorService.submit(() -> load(image)));
+            }
+        }
+
+        Map<String, byte[]> photos = new HashMap<>();
+        try {
+            for (Map.Entry<String, Future<byte[]>> entry : futures.entrySet()) {
+                signal.throwIfCanceled();
+                try {
+                    byte[] photo = entry.getValue().get();
+                    if (photo != null) {
+                        photos.put(entry.getKey(), photo);
+                    }
+                } catch (ExecutionException e) {
+                    Log.w(Contacts.LOG_TAG, "Cannot load photo", e.getCause());
+                }
+            }
+        } finally {
+            for (Future<byte[]> future : futures.values()) {
+                future.cancel(true);
+            }
+        }
+        return photos;
+    }
+
+    /**
+     * @return the downscaled photo, or null if the image cannot be loaded
+     */
+    byte[] load(String image) {
+        try {
+            if (image.startsWith(DATA_URL_PREFIX)) {
+                int marker = image.indexOf(BASE64_MARKER);
+                if (marker == -1) {
+                    Log.w(Contacts.LOG_TAG, "Only Base64 data URLs are supported as contact image");
+                    return null;
+                }
+                return process(Base64.decode(image.substring(marker + BASE64_MARKER.length()), Base64.DEFAULT));
+            }
+            if (image.contains("://")) {
+                return loadUrl(image);
+            }
+            return process(Base64.decode(image, Base64.DEFAULT));
+        } catch (Exception e) {
+            Log.w(Contacts.LOG_TAG, "Cannot load contact image", e);
+            return null;
+        }
+    }
+
+    void shutdown() {
+        executorService.shutdownNow();
+        photosByHash.evictAll();
+        hashesByUrl.evictAll();
+    }
+
+    private byte[] loadUrl(String url) throws Exception {
+        String hash = hashesByUrl.get(url);
+        if (hash != null) {
+            byte[] photo = photosByHash.get(hash);
+            if (photo != null) {
+                return photo;
+            }
+        }
+
+        byte[] source = fetcher.fetch(url);
+        hash = hash(source);
+        hashesByUrl.put(url, hash);
+        return process(source, hash);
+    }
+
+    private byte[] process(byte[] source) throws NoSuchAlgorithmException {
+        return process(source, hash(source));
+    }
+
+    private byte[] process(byte[] source, String hash) {
+        byte[] photo = photosByHash.get(hash);
+        if (photo != null) {
+            return photo;
+        }
+        photo = downscale(source, thumbnailSize());
+        if (photo != null) {
+            photosByHash.put(hash, photo);
+        }
+        return photo;
+    }
+
+    /**
+     * Decodes the image subsampled close to the target size and scales it so
+     * its shorter side matches the target, the provider crops it to a square.
+     *
+     * @return JPEG bytes, or null if the bytes are not a supported image
+     */
+    static byte[] downscale(byte[] source, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(source, 0, source.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int shorterSide = Math.min(options.outWidth, options.outHeight);
+        int sampleSize = 1;
+        while (shorterSide / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(source, 0, source.length, options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        int sampledShorterSide = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        if (sampledShorterSide > size) {
+            float scale = (float) size / sampledShorterSide;
+            Bitmap scaled = Bitmap.createScaledBitmap(
+                    bitmap,
+                    Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)),
+                    true
+            );
+            if (scaled != bitmap) {
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private int thumbnailSize() {
+        if (thumbnailSize == 0) {
+            int size = DEFAULT_THUMBNAIL_SIZE;
+            Cursor cursor = contentResolver.query(
+                    ContactsContract.DisplayPhoto.CONTENT_MAX_DIMENSIONS_URI,
+                    new String[]{ContactsContract.DisplayPhoto.THUMBNAIL_MAX_DIM},
+                    null,
+                    null,
+                    null
+            );
+            if (cursor != null) {
+                try {
+                    if (cursor.moveToFirst() && cursor.getInt(0) > 0) {
+                        size = cursor.getInt(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            thumbnailSize = size;
+        }
+        return thumbnailSize;
+    }
+
+    private static String hash(byte[] bytes) throws NoSuchAlgorithmException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package ch.byrds.capacitor.contacts;
+
+import android.util.Base64;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Contact as decoded from the Data table, serialized to JSON once it is complete.
+ */
+class ContactRecord {
+
+    /**
+     * Phone number or email address with its provider type and custom label.
+     */
+    static class LabeledValue {
+
+        final int type;
+        final String label;
+        final String value;
+
+        LabeledValue(int type, String label, String value) {
+            this.type = type;
+            this.label = label;
+            this.value = value;
+        }
+    }
+
+    final long contactId;
+    final String displayName;
+    final List<LabeledValue> phoneNumbers = new ArrayList<>(2);
+    final List<LabeledValue> emails = new ArrayList<>(1);
+    String birthday;
+    boolean hasOrganization;
+    String organizationName;
+    String organizationRole;
+    byte[] photoThumbnail;
+    long lastUpdated;
+
+    ContactRecord(long contactId, String displayName) {
+        this.contactId = contactId;
+        this.displayName = displayName;
+    }
+
+    JSObject toJSObject() {
+        JSObject jsContact = new JSObject();
+        jsContact.put(Contacts.CONTACT_ID, String.valueOf(contactId));
+        jsContact.put(Contacts.DISPLAY_NAME, displayName);
+
+        JSArray jsPhoneNumbers = new JSArray();
+        for (LabeledValue phoneNumber : phoneNumbers) {
+            JSObject jsPhone = new JSObject();
+            jsPhone.put(Contacts.PHONE_LABEL, Contacts.mapPhoneTypeToLabel(phoneNumber.type, phoneNumber.label));
+            jsPhone.put(Contacts.PHONE_NUMBER, phoneNumber.value);
+            jsPhoneNumbers.put(jsPhone);
+        }
+        jsContact.put(Contacts.PHONE_NUMBERS, jsPhoneNumbers);
+
+        JSArray jsEmailAddresses = new JSArray();
+        for (LabeledValue email : emails) {
+            JSObject jsEmail = new JSObject();
+            jsEmail.put(Contacts.EMAIL_LABEL, Contacts.mapEmailTypeToLabel(email.type, email.label));
+            jsEmail.put(Contacts.EMAIL_ADDRESS, email.value);
+            jsEmailAddresses.put(jsEmail);
+        }
+        jsContact.put(Contacts.EMAILS, jsEmailAddresses);
+
+        if (birthday != null) {
+            jsContact.put(Contacts.BIRTHDAY, birthday);
+        }
+        if (hasOrganization) {
+            jsContact.put(Contacts.ORGANIZATION_NAME, organizationName);
+            if (organizationRole != null) {
+                jsContact.put(Contacts.ORGANIZATION_ROLE, organizationRole);
+            }
+        }
+        if (photoThumbnail != null) {
+            String encodedThumbnailPhoto = Base64.encodeToString(photoThumbnail, Base64.NO_WRAP);
+            jsContact.put(Contacts.PHOTO_THUMBNAIL, "data:image/png;base64," + encodedThumbnailPhoto);
+        }
+        return jsContact;
+    }
+}
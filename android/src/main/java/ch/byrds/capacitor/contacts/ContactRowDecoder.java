@@ -0,0 +1,112 @@
+package ch.byrds.capacitor.contacts;
+
+import static android.provider.ContactsContract.Data.MIMETYPE;
+
+import android.database.Cursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Contactables;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Event;
+import android.provider.ContactsContract.CommonDataKinds.Organization;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.Photo;
+
+/**
+ * Decodes the rows of a Data cursor sorted by CONTACT_ID into contact records.
+ * Column indices are resolved once, columns missing from the projection are -1.
+ */
+class ContactRowDecoder {
+
+    private final Cursor cursor;
+
+    private final int mimeTypeIndex;
+    private final int contactIdIndex;
+    private final int displayNameIndex;
+    private final int dataIndex;
+    private final int typeIndex;
+    private final int labelIndex;
+    private final int titleIndex;
+    private final int photoIndex;
+    private final int lastUpdatedIndex;
+
+    private boolean hasRow;
+    private int rowCount;
+
+    ContactRowDecoder(Cursor cursor) {
+        this.cursor = cursor;
+        this.mimeTypeIndex = cursor.getColumnIndex(MIMETYPE);
+        this.contactIdIndex = cursor.getColumnIndex(ContactsContract.Data.CONTACT_ID);
+        this.displayNameIndex = cursor.getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME);
+        this.dataIndex = cursor.getColumnIndex(Contactables.DATA);
+        this.typeIndex = cursor.getColumnIndex(Contactables.TYPE);
+        this.labelIndex = cursor.getColumnIndex(Contactables.LABEL);
+        this.titleIndex = cursor.getColumnIndex(Organization.TITLE);
+        this.photoIndex = cursor.getColumnIndex(ContactsContract.Contacts.Photo.PHOTO);
+        this.lastUpdatedIndex = cursor.getColumnIndex(ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP);
+        this.hasRow = cursor.moveToNext();
+    }
+
+    /**
+     * Reads all rows of the next contact, or returns null at the end of the cursor.
+     */
+    ContactRecord nextContact() {
+        if (!hasRow) {
+            return null;
+        }
+
+        ContactRecord contact = new ContactRecord(cursor.getLong(contactIdIndex), cursor.getString(displayNameIndex));
+        if (lastUpdatedIndex != -1) {
+            contact.lastUpdated = cursor.getLong(lastUpdatedIndex);
+        }
+        do {
+            decodeRow(contact);
+            rowCount++;
+            hasRow = cursor.moveToNext();
+        } while (hasRow && cursor.getLong(contactIdIndex) == contact.contactId);
+
+        return contact;
+    }
+
+    /**
+     * Number of rows decoded so far.
+     */
+    int rowCount() {
+        return rowCount;
+    }
+
+    private void decodeRow(ContactRecord contact) {
+        String mimeType = cursor.getString(mimeTypeIndex);
+
+        switch (mimeType) {
+            case Email.CONTENT_ITEM_TYPE:
+                contact.emails.add(
+                        new ContactRecord.LabeledValue(cursor.getInt(typeIndex), cursor.getString(labelIndex), cursor.getString(dataIndex))
+                );
+                break;
+            case Phone.CONTENT_ITEM_TYPE:
+                contact.phoneNumbers.add(
+                        new ContactRecord.LabeledValue(cursor.getInt(typeIndex), cursor.getString(labelIndex), cursor.getString(dataIndex))
+                );
+                break;
+            case Event.CONTENT_ITEM_TYPE:
+                if (cursor.getInt(typeIndex) == Event.TYPE_BIRTHDAY) {
+                    contact.birthday = cursor.getString(dataIndex);
+                }
+                break;
+            case Organization.CONTENT_ITEM_TYPE:
+                contact.hasOrganization = true;
+                contact.organizationName = cursor.getString(dataIndex);
+                String organizationRole = cursor.getString(titleIndex);
+                if (organizationRole != null) {
+                    contact.organizationRole = organizationRole;
+                }
+                break;
+            case Photo.CONTENT_ITEM_TYPE:
+                byte[] thumbnailPhoto = cursor.getBlob(photoIndex);
+                if (thumbnailPhoto != null) {
+                    contact.photoThumbnail = thumbnailPhoto;
+                }
+                break;
+        }
+    }
+}
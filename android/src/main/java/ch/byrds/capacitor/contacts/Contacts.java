@@ -3,15 +3,14 @@ package ch.byrds.capacitor.contacts;
 import static android.provider.ContactsContract.Data.MIMETYPE;
 
 import android.Manifest;
-import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Email;
-import android.provider.ContactsContract.CommonDataKinds.Event;
 import android.provider.ContactsContract.CommonDataKinds.Organization;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.CommonDataKinds.Photo;
@@ -29,17 +28,14 @@ import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 import com.getcapacitor.annotation.Permission;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -58,18 +54,67 @@ public class Contacts extends Plugin {
      */
     public static final int REQUEST_CODE = 0x1651;
 
-    private static final String CONTACT_ID = "contactId";
-    private static final String EMAILS = "emails";
-    private static final String EMAIL_LABEL = "label";
-    private static final String EMAIL_ADDRESS = "address";
-    private static final String PHONE_NUMBERS = "phoneNumbers";
-    private static final String PHONE_LABEL = "label";
-    private static final String PHONE_NUMBER = "number";
-    private static final String DISPLAY_NAME = "displayName";
-    private static final String PHOTO_THUMBNAIL = "photoThumbnail";
-    private static final String ORGANIZATION_NAME = "organizationName";
-    private static final String ORGANIZATION_ROLE = "organizationRole";
-    private static final String BIRTHDAY = "birthday";
+    static final String CONTACT_ID = "contactId";
+    static final String EMAILS = "emails";
+    static final String EMAIL_LABEL = "label";
+    static final String EMAIL_ADDRESS = "address";
+    static final String PHONE_NUMBERS = "phoneNumbers";
+    static final String PHONE_LABEL = "label";
+    static final String PHONE_NUMBER = "number";
+    static final String DISPLAY_NAME = "displayName";
+    static final String PHOTO_THUMBNAIL = "photoThumbnail";
+    static final String ORGANIZATION_NAME = "organizationName";
+    static final String ORGANIZATION_ROLE = "organizationRole";
+    static final String BIRTHDAY = "birthday";
+
+    private static final String PAGE_SIZE = "pageSize";
+    private static final String LIMIT = "limit";
+    private static final String FORMAT = "format";
+    private static final String PARALLELISM = "parallelism";
+    private static final String CONTACTS_CHUNK_EVENT = "contactsChunk";
+    private static final String SINCE = "since";
+    private static final String CONTACT_IDS = "contactIds";
+    private static final String GROUP_IDS = "groupIds";
+    private static final String PHOTO = "photo";
+    private static final String CONTACTS_CHANGED_EVENT = "contactsChanged";
+    private static final String SAVE_CONTACTS_PROGRESS_EVENT = "saveContactsProgress";
+    private static final String DELETE_CONTACTS_PROGRESS_EVENT = "deleteContactsProgress";
+    private static final String EXPORT_CONTACTS_PROGRESS_EVENT = "exportContactsProgress";
+
+    private ContactPhotoCache photoCache;
+    private ContactPhotoLoader photoLoader;
+    private final ContactsMetrics metrics = new ContactsMetrics();
+    private ContactsExecutor executor;
+    private ContactsObserver observer;
+    private volatile ContactsSnapshot snapshot;
+    private final ContactsSearchIndex searchIndex = new ContactsSearchIndex();
+    private ContactPhoneLookup phoneLookup;
+
+    private final ContactsObserver.Listener contactsChangedNotifier = () -> notifyListeners(CONTACTS_CHANGED_EVENT, new JSObject());
+    private final ContactsObserver.Listener searchIndexUpdater = () -> executor.submit(() -> updateSearchIndex(null));
+
+    @Override
+    public void load() {
+        photoCache = new ContactPhotoCache(getContext());
+        photoLoader = new ContactPhotoLoader(getContext().getContentResolver(), new PhotoFetcher());
+        executor = new ContactsExecutor(metrics);
+        observer = new ContactsObserver(getContext().getContentResolver());
+        phoneLookup = new ContactPhoneLookup(observer, ContactPhoneLookup.DEFAULT_MAX_ENTRIES);
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        executor.shutdown();
+        observer.release();
+        if (snapshot != null) {
+            snapshot.clear();
+            snapshot = null;
+        }
+        photoCache.clearMemory();
+        photoLoader.shutdown();
+        searchIndex.clear();
+        phoneLookup.clear();
+    }
 
     @PluginMethod
     public void getPermissions(PluginCall call) {
@@ -100,236 +145,545 @@ public class Contacts extends Plugin {
 
     @PluginMethod
     public void getContacts(PluginCall call) {
-        JSArray jsContacts = new JSArray();
+        // paged reads are not coalesced, a second call would miss the chunks emitted so far
+        String coalesceKey = call.getInt(PAGE_SIZE, 0) > 0 ? null : ContactsExecutor.coalesceKey(call);
+
+        ContactsSnapshot snapshot = this.snapshot;
+        if (snapshot == null || coalesceKey == null) {
+            executor.execute(call, coalesceKey, (signal, callMetrics) -> readContacts(call, signal, callMetrics));
+            return;
+        }
 
-        ContentResolver contentResolver = getContext().getContentResolver();
-
-        String[] projection = new String[]{
-                MIMETYPE,
-                Organization.TITLE,
-                ContactsContract.Contacts._ID,
-                ContactsContract.Data.CONTACT_ID,
-                ContactsContract.Contacts.DISPLAY_NAME,
-                ContactsContract.Contacts.Photo.PHOTO,
-                ContactsContract.CommonDataKinds.Contactables.DATA,
-                ContactsContract.CommonDataKinds.Contactables.TYPE,
-                ContactsContract.CommonDataKinds.Contactables.LABEL
-        };
-        String selection = MIMETYPE + " in (?, ?, ?, ?, ?)";
-        String[] selectionArgs = new String[]{
-                Email.CONTENT_ITEM_TYPE,
-                Phone.CONTENT_ITEM_TYPE,
-                Event.CONTENT_ITEM_TYPE,
-                Organization.CONTENT_ITEM_TYPE,
-                Photo.CONTENT_ITEM_TYPE
-        };
-
-        Cursor contactsCursor = contentResolver.query(ContactsContract.Data.CONTENT_URI, projection, selection, selectionArgs, null);
-
-        if (contactsCursor != null && contactsCursor.getCount() > 0) {
-            HashMap<Object, JSObject> contactsById = new HashMap<>();
-
-            while (contactsCursor.moveToNext()) {
-                String _id = contactsCursor.getString(contactsCursor.getColumnIndex(ContactsContract.Contacts._ID));
-                String contactId = contactsCursor.getString(contactsCursor.getColumnIndex(ContactsContract.Data.CONTACT_ID));
-
-                JSObject jsContact = new JSObject();
-
-                if (!contactsById.containsKey(contactId)) {
-                    // this contact does not yet exist in HashMap,
-                    // so put it to the HashMap
-
-                    jsContact.put(CONTACT_ID, contactId);
-                    String displayName = contactsCursor.getString(contactsCursor.getColumnIndex(ContactsContract.Contacts.DISPLAY_NAME));
-
-                    jsContact.put(DISPLAY_NAME, displayName);
-                    JSArray jsPhoneNumbers = new JSArray();
-                    jsContact.put(PHONE_NUMBERS, jsPhoneNumbers);
-                    JSArray jsEmailAddresses = new JSArray();
-                    jsContact.put(EMAILS, jsEmailAddresses);
-
-                    jsContacts.put(jsContact);
-                } else {
-                    // this contact already exists,
-                    // retrieve it
-                    jsContact = contactsById.get(contactId);
+        ContactsSnapshot.Entry cached = snapshot.get(coalesceKey);
+        if (cached != null) {
+            try {
+                executor.resolve(call, new JSObject(cached.json), cached.payloadBytes);
+                return;
+            } catch (JSONException e) {
+                Log.w(LOG_TAG, "Cannot parse the snapshot entry, reading again", e);
+            }
+        }
+        executor.execute(
+                call,
+                coalesceKey,
+                (signal, callMetrics) -> {
+                    long generation = snapshot.generation();
+                    JSObject result = readContacts(call, signal, callMetrics);
+                    // serialized once for the cache and the payload metric
+                    String json = result.toString();
+                    int payloadBytes = CallMetrics.utf8Length(json);
+                    callMetrics.setPayloadBytes(payloadBytes);
+                    snapshot.put(coalesceKey, generation, json, payloadBytes);
+                    return result;
                 }
+        );
+    }
 
-                if (jsContact != null) {
-                    String mimeType = contactsCursor.getString(contactsCursor.getColumnIndex(MIMETYPE));
-                    String data = contactsCursor.getString(
-                            contactsCursor.getColumnIndex(ContactsContract.CommonDataKinds.Contactables.DATA)
-                    );
-                    int type = contactsCursor.getInt(contactsCursor.getColumnIndex(ContactsContract.CommonDataKinds.Contactables.TYPE));
-                    String label = contactsCursor.getString(
-                            contactsCursor.getColumnIndex(ContactsContract.CommonDataKinds.Contactables.LABEL)
+    @PluginMethod
+    public void setSnapshotCache(PluginCall call) {
+        boolean enabled = call.getBoolean("enabled", true);
+        int maxBytes = call.getInt("maxBytes", ContactsSnapshot.DEFAULT_MAX_BYTES);
+
+        if (snapshot != null) {
+            observer.removeListener(snapshot);
+            observer.removeListener(contactsChangedNotifier);
+            snapshot.clear();
+            snapshot = null;
+        }
+        if (enabled) {
+            try {
+                ContactsSnapshot newSnapshot = new ContactsSnapshot(observer, maxBytes);
+                observer.addListener(newSnapshot);
+                observer.addListener(contactsChangedNotifier);
+                snapshot = newSnapshot;
+            } catch (SecurityException e) {
+                call.reject(e.getMessage(), e);
+                return;
+            }
+        }
+        call.resolve();
+    }
+
+    private JSObject readContacts(PluginCall call, CancellationSignal signal, CallMetrics callMetrics) {
+        ContactsReader reader = new ContactsReader(
+                getContext().getContentResolver(),
+                signal,
+                callMetrics,
+                executor.partitionExecutor(),
+                Math.min(call.getInt(PARALLELISM, 1), ContactsExecutor.MAX_PARALLELISM)
+        );
+        ContactsWindow window = ContactsWindow.fromCall(call);
+        return reader.readContacts(
+                ContactsQuery.fromCall(call, window.listsAllContacts()),
+                window,
+                call.getInt(PAGE_SIZE, 0),
+                ContactColumns.FORMAT.equals(call.getString(FORMAT)),
+                (chunk, chunkIndex, done) -> notifyContactsChunk(call, chunk, chunkIndex, done)
+        );
+    }
+
+    @PluginMethod
+    public void getSectionIndex(PluginCall call) {
+        executor.execute(call, ContactsExecutor.coalesceKey(call), (signal, callMetrics) -> readSectionIndex(call, signal, callMetrics));
+    }
+
+    private JSObject readSectionIndex(PluginCall call, CancellationSignal signal, CallMetrics callMetrics) {
+        // the Contacts table the index is computed on has no account columns
+        ContactsQuery.Filter filter = new ContactsQuery.Filter(
+                null,
+                null,
+                call.getBoolean(ContactsQuery.VISIBLE_ONLY, false),
+                call.getBoolean(ContactsQuery.HAS_PHONE_NUMBER, false)
+        );
+        ContactsWindow window = new ContactsWindow(call.getString(ContactsWindow.SORT_BY, ContactsWindow.SORT_DISPLAY_NAME), 0, 0);
+        ContactsReader reader = new ContactsReader(getContext().getContentResolver(), signal, callMetrics);
+        return reader.readSectionIndex(filter, window);
+    }
+
+    @PluginMethod
+    public void getContactFingerprints(PluginCall call) {
+        executor.execute(call, ContactsExecutor.coalesceKey(call), (signal, callMetrics) ->
+                new ContactFingerprinter(getContext().getContentResolver(), signal, callMetrics).readFingerprints());
+    }
+
+    @PluginMethod
+    public void getContactsByIds(PluginCall call) {
+        executor.execute(call, ContactsExecutor.coalesceKey(call), (signal, callMetrics) -> readContactsByIds(call, signal, callMetrics));
+    }
+
+    private JSObject readContactsByIds(PluginCall call, CancellationSignal signal, CallMetrics callMetrics) throws JSONException {
+        JSArray jsContactIds = call.getArray(CONTACT_IDS, new JSArray());
+        ContactsReader reader = new ContactsReader(getContext().getContentResolver(), signal, callMetrics);
+        return reader.readContactsByIds(
+                ContactsQuery.fromCall(call, true),
+                jsContactIds.<String>toList(),
+                ContactColumns.FORMAT.equals(call.getString(FORMAT))
+        );
+    }
+
+    @PluginMethod
+    public void getContactChanges(PluginCall call) {
+        executor.execute(call, null, (signal, callMetrics) -> readContactChanges(call, signal, callMetrics));
+    }
+
+    private JSObject readContactChanges(PluginCall call, CancellationSignal signal, CallMetrics callMetrics) {
+        ContactsReader reader = new ContactsReader(getContext().getContentResolver(), signal, callMetrics);
+        // the name rows are included, so a contact whose last phone or email was
+        // removed still has a row matching the timestamp filter
+        return reader.readContactChanges(ContactsQuery.fromCall(call, true), call.getLong(SINCE, 0L));
+    }
+
+    @PluginMethod
+    public void getContactPhotos(PluginCall call) {
+        executor.execute(call, null, (signal, callMetrics) -> readContactPhotos(call, signal));
+    }
+
+    private JSObject readContactPhotos(PluginCall call, CancellationSignal signal) {
+        JSArray jsContactIds = call.getArray(CONTACT_IDS, new JSArray());
+        boolean highRes = "full".equals(call.getString("size", "thumbnail"));
+        boolean asFile = "file".equals(call.getString(FORMAT, "base64"));
+
+        JSArray jsPhotos = new JSArray();
+        for (int offset = 0; offset < jsContactIds.length(); offset += ContactsQuery.MAX_SELECTION_ARGS) {
+            int count = Math.min(ContactsQuery.MAX_SELECTION_ARGS, jsContactIds.length() - offset);
+            String[] contactIds = new String[count];
+            for (int i = 0; i < count; i++) {
+                contactIds[i] = jsContactIds.optString(offset + i);
+            }
+
+            // the photo ids identify the current version of each photo
+            Cursor photoCursor = getContext()
+                    .getContentResolver()
+                    .query(
+                            ContactsContract.Contacts.CONTENT_URI,
+                            new String[]{
+                                    ContactsContract.Contacts._ID,
+                                    ContactsContract.Contacts.PHOTO_ID,
+                                    ContactsContract.Contacts.PHOTO_FILE_ID
+                            },
+                            ContactsQuery.inSelection(ContactsContract.Contacts._ID, count),
+                            contactIds,
+                            null,
+                            signal
                     );
+            if (photoCursor == null) {
+                continue;
+            }
 
-                    // email
-                    switch (mimeType) {
-                        case Email.CONTENT_ITEM_TYPE:
-                            try {
-                                // add this email to the list
-                                JSArray emailAddresses = (JSArray) jsContact.get(EMAILS);
-                                JSObject jsEmail = new JSObject();
-                                jsEmail.put(EMAIL_LABEL, mapEmailTypeToLabel(type, label));
-                                jsEmail.put(EMAIL_ADDRESS, data);
-                                emailAddresses.put(jsEmail);
-                            } catch (JSONException e) {
-                                e.printStackTrace();
+            try {
+                while (photoCursor.moveToNext()) {
+                    signal.throwIfCanceled();
+                    long contactId = photoCursor.getLong(0);
+                    JSObject jsPhoto = new JSObject();
+                    jsPhoto.put(CONTACT_ID, String.valueOf(contactId));
+
+                    if (!photoCursor.isNull(1) || !photoCursor.isNull(2)) {
+                        String photoVersion = ContactPhotoCache.photoVersion(photoCursor.getLong(1), photoCursor.getLong(2));
+                        try {
+                            if (asFile) {
+                                File photoFile = photoCache.getPhotoFile(contactId, photoVersion, highRes);
+                                if (photoFile != null) {
+                                    jsPhoto.put(PHOTO, Uri.fromFile(photoFile).toString());
+                                }
+                            } else {
+                                byte[] photo = photoCache.getPhoto(contactId, photoVersion, highRes);
+                                if (photo != null) {
+                                    jsPhoto.put(PHOTO, "data:image/png;base64," + Base64.encodeToString(photo, Base64.NO_WRAP));
+                                }
                             }
-                            break;
-                        // phone
-                        case Phone.CONTENT_ITEM_TYPE:
-                            try {
-                                // add this phone to the list
-                                JSArray jsPhoneNumbers = (JSArray) jsContact.get(PHONE_NUMBERS);
-                                JSObject jsPhone = new JSObject();
-                                jsPhone.put(PHONE_LABEL, mapPhoneTypeToLabel(type, label));
-                                jsPhone.put(PHONE_NUMBER, data);
-                                jsPhoneNumbers.put(jsPhone);
-                            } catch (JSONException e) {
-                                e.printStackTrace();
-                            }
-                            break;
-                        // birthday
-                        case Event.CONTENT_ITEM_TYPE:
-                            int eventType = contactsCursor.getInt(
-                                    contactsCursor.getColumnIndex(ContactsContract.CommonDataKinds.Contactables.TYPE)
-                            );
-                            if (eventType == Event.TYPE_BIRTHDAY) {
-                                jsContact.put(BIRTHDAY, data);
-                            }
-                            break;
-                        // organization
-                        case Organization.CONTENT_ITEM_TYPE:
-                            jsContact.put(ORGANIZATION_NAME, data);
-                            String organizationRole = contactsCursor.getString(contactsCursor.getColumnIndex(Organization.TITLE));
-                            if (organizationRole != null) {
-                                jsContact.put(ORGANIZATION_ROLE, organizationRole);
-                            }
-                            break;
-                        // photo
-                        case Photo.CONTENT_ITEM_TYPE:
-                            byte[] thumbnailPhoto = contactsCursor.getBlob(
-                                    contactsCursor.getColumnIndex(ContactsContract.Contacts.Photo.PHOTO)
-                            );
-                            if (thumbnailPhoto != null) {
-                                String encodedThumbnailPhoto = Base64.encodeToString(thumbnailPhoto, Base64.NO_WRAP);
-                                jsContact.put(PHOTO_THUMBNAIL, "data:image/png;base64," + encodedThumbnailPhoto);
-                            }
-                            break;
+                        } catch (IOException e) {
+                            Log.w(LOG_TAG, "Cannot read photo of contact " + contactId, e);
+                        }
                     }
-
-                    contactsById.put(contactId, jsContact);
+                    jsPhotos.put(jsPhoto);
                 }
+            } finally {
+                photoCursor.close();
             }
         }
-        if (contactsCursor != null) {
-            contactsCursor.close();
-        }
 
         JSObject result = new JSObject();
-        result.put("contacts", jsContacts);
-        call.resolve(result);
+        result.put("photos", jsPhotos);
+        return result;
+    }
+
+    private void notifyContactsChunk(PluginCall call, JSObject chunk, int chunkIndex, boolean done) {
+        String callId = call.getString(ContactsExecutor.CALL_ID);
+        if (callId != null) {
+            chunk.put(ContactsExecutor.CALL_ID, callId);
+        }
+        chunk.put("chunkIndex", chunkIndex);
+        chunk.put("done", done);
+        notifyListeners(CONTACTS_CHUNK_EVENT, chunk);
     }
 
     @PluginMethod
     public void getGroups(PluginCall call) {
-        JSObject result = new JSObject();
-        JSArray jsGroups = new JSArray();
-        Cursor dataCursor = getContext().getContentResolver().query(ContactsContract.Groups.CONTENT_URI, null, null, null, null);
-
-        while (dataCursor.moveToNext()) {
-            JSObject jsGroup = new JSObject();
-            String groupId = dataCursor.getString(dataCursor.getColumnIndex(ContactsContract.Groups._ID));
-            jsGroup.put("groupId", groupId);
-            jsGroup.put("accountType", dataCursor.getString(dataCursor.getColumnIndex(ContactsContract.Groups.ACCOUNT_TYPE)));
-            jsGroup.put("accountName", dataCursor.getString(dataCursor.getColumnIndex(ContactsContract.Groups.ACCOUNT_NAME)));
-            jsGroup.put("title", dataCursor.getString(dataCursor.getColumnIndex(ContactsContract.Groups.TITLE)));
-            jsGroups.put(jsGroup);
-        }
-        dataCursor.close();
+        executor.execute(call, ContactsExecutor.coalesceKey(call), (signal, callMetrics) -> readGroups(call, signal, callMetrics));
+    }
 
-        result.put("groups", jsGroups);
-        call.resolve(result);
+    private JSObject readGroups(PluginCall call, CancellationSignal signal, CallMetrics callMetrics) {
+        ContactGroupsReader reader = new ContactGroupsReader(getContext().getContentResolver(), signal, callMetrics);
+        JSObject result = new JSObject();
+        result.put("groups", reader.readAllGroups(
+                call.getString(ContactsQuery.ACCOUNT_TYPE),
+                call.getString(ContactsQuery.ACCOUNT_NAME),
+                call.getBoolean(ContactsQuery.VISIBLE_ONLY, false)
+        ));
+        return result;
     }
 
     @PluginMethod
     public void getContactGroups(PluginCall call) {
-        Cursor dataCursor = getContext()
-                .getContentResolver()
-                .query(
-                        ContactsContract.Data.CONTENT_URI,
-                        new String[]{ContactsContract.Data.CONTACT_ID, ContactsContract.Data.DATA1},
-                        MIMETYPE + "=?",
-                        new String[]{ContactsContract.CommonDataKinds.GroupMembership.CONTENT_ITEM_TYPE},
-                        null
-                );
-
-        Map<String, Set<String>> contact2GroupMap = new HashMap<>();
-        while (dataCursor.moveToNext()) {
-            String contact_id = dataCursor.getString(0);
-            String group_id = dataCursor.getString(1);
-
-            Set<String> groups = new HashSet<>();
-            if (contact2GroupMap.containsKey(contact_id)) {
-                groups = contact2GroupMap.get(contact_id);
-            }
-            groups.add(group_id);
-            contact2GroupMap.put(contact_id, groups);
+        executor.execute(call, ContactsExecutor.coalesceKey(call), (signal, callMetrics) -> readContactGroups(call, signal, callMetrics));
+    }
+
+    private JSObject readContactGroups(PluginCall call, CancellationSignal signal, CallMetrics callMetrics) throws JSONException {
+        JSArray jsGroupIds = call.getArray(GROUP_IDS);
+        JSArray jsContactIds = call.getArray(CONTACT_IDS);
+        List<String> groupIds = jsGroupIds != null ? jsGroupIds.<String>toList() : null;
+        List<String> contactIds = jsContactIds != null ? jsContactIds.<String>toList() : null;
+
+        ContactGroupsReader reader = new ContactGroupsReader(getContext().getContentResolver(), signal, callMetrics);
+        return reader.readContactGroups(groupIds, contactIds, call.getBoolean("includeGroups", false));
+    }
+
+    @PluginMethod
+    public void searchContacts(PluginCall call) {
+        executor.execute(call, null, (signal, callMetrics) -> readSearchResults(call, signal, callMetrics));
+    }
+
+    private JSObject readSearchResults(PluginCall call, CancellationSignal signal, CallMetrics callMetrics) {
+        String query = call.getString("query", "");
+        int limit = call.getInt(LIMIT, 20);
+
+        if (searchIndex.generation() == -1) {
+            // from now on the index follows the changes of the provider
+            observer.addListener(searchIndexUpdater);
         }
-        dataCursor.close();
+        long start = callMetrics.start();
+        updateSearchIndex(signal);
+        callMetrics.stop(CallMetrics.Phase.QUERY, start);
+
+        start = callMetrics.start();
+        List<ContactRecord> contacts = searchIndex.search(query, limit);
+        callMetrics.stop(CallMetrics.Phase.ITERATE, start);
+
+        start = callMetrics.start();
+        JSArray jsContacts = new JSArray();
+        for (ContactRecord contact : contacts) {
+            jsContacts.put(contact.toJSObject());
+        }
+        callMetrics.stop(CallMetrics.Phase.SERIALIZE, start);
+        callMetrics.addContacts(contacts.size());
 
         JSObject result = new JSObject();
-        for (Map.Entry<String, Set<String>> entry : contact2GroupMap.entrySet()) {
-            JSArray jsGroups = new JSArray();
-            Set<String> groups = entry.getValue();
-            for (String group : groups) {
-                jsGroups.put(group);
-            }
-            result.put(entry.getKey(), jsGroups);
+        result.put("contacts", jsContacts);
+        return result;
+    }
+
+    @PluginMethod
+    public void findDuplicates(PluginCall call) {
+        executor.execute(call, ContactsExecutor.coalesceKey(call), (signal, callMetrics) -> readDuplicates(call, signal, callMetrics));
+    }
+
+    private JSObject readDuplicates(PluginCall call, CancellationSignal signal, CallMetrics callMetrics) {
+        ContactDuplicateFinder finder = new ContactDuplicateFinder(getContext().getContentResolver(), signal, callMetrics);
+        return finder.findDuplicates(call.getString("strategy", ContactDuplicateFinder.STRATEGY_ALL));
+    }
+
+    @PluginMethod
+    public void exportContacts(PluginCall call) {
+        executor.executeWrite(call, (signal, callMetrics) -> writeExport(call, signal, callMetrics));
+    }
+
+    private JSObject writeExport(PluginCall call, CancellationSignal signal, CallMetrics callMetrics) throws IOException {
+        String format = call.getString(FORMAT, ContactsExporter.FORMAT_VCF);
+        boolean gzip = call.getBoolean("gzip", false);
+        String path = call.getString("path", "contacts." + format + (gzip ? ".gz" : ""));
+
+        // the path is relative to the files directory of the app and may not leave it
+        File filesDir = getContext().getFilesDir().getCanonicalFile();
+        File file = new File(filesDir, path).getCanonicalFile();
+        if (!file.getPath().startsWith(filesDir.getPath() + File.separator)) {
+            throw new IllegalArgumentException("Path must be inside the app files directory");
+        }
+
+        ContactsExporter exporter = new ContactsExporter(getContext().getContentResolver(), signal, callMetrics);
+        JSObject result = exporter.export(
+                ContactsQuery.fromCall(call, true),
+                format,
+                file,
+                gzip,
+                (exported, bytes) -> {
+                    JSObject progress = new JSObject();
+                    progress.put("exported", exported);
+                    progress.put("bytes", bytes);
+                    notifyListeners(EXPORT_CONTACTS_PROGRESS_EVENT, progress);
+                }
+        );
+        result.put("uri", Uri.fromFile(file).toString());
+        return result;
+    }
+
+    @PluginMethod
+    public void lookupByPhoneNumber(PluginCall call) {
+        executor.execute(call, null, (signal, callMetrics) -> readPhoneLookup(call, signal, callMetrics));
+    }
+
+    private JSObject readPhoneLookup(PluginCall call, CancellationSignal signal, CallMetrics callMetrics) throws JSONException {
+        JSArray jsNumbers = call.getArray("numbers", new JSArray());
+        // cached results are only valid while the observer follows the changes of the provider
+        observer.addListener(phoneLookup);
+        return phoneLookup.lookup(getContext().getContentResolver(), jsNumbers.<String>toList(), signal, callMetrics);
+    }
+
+    private void updateSearchIndex(CancellationSignal signal) {
+        long generation = observer.generation();
+        if (searchIndex.generation() != generation) {
+            searchIndex.update(getContext().getContentResolver(), generation, signal);
         }
+    }
+
+    @PluginMethod
+    public void setMetricsEnabled(PluginCall call) {
+        metrics.setEnabled(call.getBoolean("enabled", true));
+        call.resolve();
+    }
 
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        call.resolve(metrics.toJSObject());
+    }
+
+    @PluginMethod
+    public void resetMetrics(PluginCall call) {
+        metrics.reset();
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void cancel(PluginCall call) {
+        String callId = call.getString(ContactsExecutor.CALL_ID);
+        JSObject result = new JSObject();
+        result.put("cancelled", callId != null && executor.cancel(callId));
         call.resolve(result);
     }
 
     @PluginMethod
     public void deleteContact(PluginCall call) {
-        Uri uri = Uri.withAppendedPath(ContactsContract.Contacts.CONTENT_LOOKUP_URI, call.getString(CONTACT_ID));
-        getContext().getContentResolver().delete(uri, null, null);
+        executor.executeWrite(call, (signal, callMetrics) -> {
+            Uri uri = Uri.withAppendedPath(ContactsContract.Contacts.CONTENT_LOOKUP_URI, call.getString(CONTACT_ID));
+            getContext().getContentResolver().delete(uri, null, null);
+            return new JSObject();
+        });
+    }
+
+    @PluginMethod
+    public void deleteContacts(PluginCall call) {
+        executor.executeWrite(call, (signal, callMetrics) -> removeContacts(call, signal));
+    }
+
+    private JSObject removeContacts(PluginCall call, CancellationSignal signal) throws Exception {
+        String accountType = call.getString("accountType");
+        String accountName = call.getString("accountName");
+        if (accountType == null && accountName != null) {
+            // the same name may be used by accounts of several types
+            throw new IllegalArgumentException("accountName requires accountType");
+        }
+        ContactsDeleter deleter = new ContactsDeleter(
+                getContext().getContentResolver(),
+                signal,
+                (processed, total, deleted) -> {
+                    JSObject progress = new JSObject();
+                    progress.put("processed", processed);
+                    progress.put("total", total);
+                    progress.put("deleted", deleted);
+                    notifyListeners(DELETE_CONTACTS_PROGRESS_EVENT, progress);
+                }
+        );
+
+        JSArray jsContactIds = call.getArray(CONTACT_IDS);
+        if (jsContactIds != null) {
+            deleter.deleteByContactIds(jsContactIds.<String>toList());
+        }
+        JSArray jsLookupKeys = call.getArray("lookupKeys");
+        if (jsLookupKeys != null) {
+            deleter.deleteByLookupKeys(jsLookupKeys.<String>toList());
+        }
+        String groupId = call.getString("groupId");
+        if (groupId != null) {
+            deleter.deleteByGroup(groupId);
+        }
+        if (accountType != null) {
+            deleter.deleteByAccount(accountType, accountName);
+        }
 
         JSObject result = new JSObject();
-        call.resolve(result);
+        result.put("deleted", deleter.getDeleted());
+        return result;
+    }
+
+    @PluginMethod
+    public void saveContact(PluginCall call) {
+        executor.executeWrite(call, (signal, callMetrics) -> editContact(call, signal));
+    }
+
+    private JSObject editContact(PluginCall call, CancellationSignal signal) throws JSONException, InterruptedException {
+        JSObject contact = call.getData();
+        Map<String, byte[]> photos = loadPhotos(Collections.singletonList(contact), signal);
+        ArrayList<ContentValues> data = buildContactData(contact, photos);
+
+        String identifier = call.getString("identifier", "");
+
+        Intent intent;
+
+        if(identifier.isEmpty()) {
+            intent = new Intent(Intent.ACTION_INSERT, ContactsContract.Contacts.CONTENT_URI);
+        } else {
+
+            long idContact = Long.parseLong(identifier);
+
+            // update contact
+            intent = new Intent(Intent.ACTION_EDIT);
+            Uri contactUri = ContentUris.withAppendedId(ContactsContract.Contacts.CONTENT_URI, idContact);
+            intent.setData(contactUri);
+        }
+
+        intent.putParcelableArrayListExtra(ContactsContract.Intents.Insert.DATA, data);
+
+        // --- Save
+
+
+        getContext().startActivity(intent);
+
+        Log.w("", intent.toString());
+
+        return new JSObject();
     }
 
     @PluginMethod
-    public void saveContact(PluginCall call) throws JSONException {
+    public void saveContacts(PluginCall call) {
+        executor.executeWrite(call, (signal, callMetrics) -> writeContacts(call, signal));
+    }
+
+    private JSObject writeContacts(PluginCall call, CancellationSignal signal) throws JSONException, InterruptedException {
+        List<JSObject> contacts = getObjects(call.getData(), "contacts");
+        int batchSize = Math.min(
+                Math.max(1, call.getInt("batchSize", ContactsBatchWriter.DEFAULT_BATCH_SIZE)),
+                ContactsQuery.MAX_SELECTION_ARGS
+        );
+        ContactsBatchWriter writer = new ContactsBatchWriter(
+                getContext().getContentResolver(),
+                call.getString("accountType"),
+                call.getString("accountName")
+        );
+
+        JSArray jsResults = new JSArray();
+        for (int offset = 0; offset < contacts.size(); offset += batchSize) {
+            signal.throwIfCanceled();
+
+            List<JSObject> batchContacts = contacts.subList(offset, Math.min(offset + batchSize, contacts.size()));
+            Map<String, byte[]> photos = loadPhotos(batchContacts, signal);
+            List<ContactsBatchWriter.Entry> batch = new ArrayList<>();
+            for (JSObject contact : batchContacts) {
+                String identifier = contact.getString("identifier", "");
+                long contactId = identifier.isEmpty() ? -1 : Long.parseLong(identifier);
+                batch.add(new ContactsBatchWriter.Entry(contactId, buildContactData(contact, photos)));
+            }
+            for (JSObject result : writer.write(batch)) {
+                jsResults.put(result);
+            }
+
+            JSObject progress = new JSObject();
+            progress.put("saved", offset + batch.size());
+            progress.put("total", contacts.size());
+            notifyListeners(SAVE_CONTACTS_PROGRESS_EVENT, progress);
+        }
+
+        JSObject result = new JSObject();
+        result.put("results", jsResults);
+        return result;
+    }
+
+    /**
+     * Downloads and downscales the images of the contacts in parallel.
+     */
+    private Map<String, byte[]> loadPhotos(List<JSObject> contacts, CancellationSignal signal) throws InterruptedException {
+        List<String> images = new ArrayList<>();
+        for (JSObject contact : contacts) {
+            images.add(contact.getString("image"));
+        }
+        return photoLoader.loadAll(images, signal);
+    }
 
+    /**
+     * Maps a NewContact to the rows of the ContactsContract.Data table.
+     *
+     * @param photos the loaded images, by image
+     */
+    static ArrayList<ContentValues> buildContactData(JSObject contact, Map<String, byte[]> photos) throws JSONException {
         // Use "Data" interface to insert data into the ContactsContract.Data table
         ArrayList<ContentValues> data = new ArrayList<ContentValues>();
 
         // name
         ContentValues name = new ContentValues();
         name.put(MIMETYPE, StructuredName.CONTENT_ITEM_TYPE);
-        name.put(StructuredName.PREFIX, call.getString("namePrefix", ""));
-        name.put(StructuredName.GIVEN_NAME, call.getString("givenName", ""));
-        name.put(StructuredName.MIDDLE_NAME, call.getString("middleName", ""));
-        name.put(StructuredName.FAMILY_NAME, call.getString("familyName", ""));
-        name.put(StructuredName.SUFFIX, call.getString("nameSuffix", ""));
+        name.put(StructuredName.PREFIX, contact.getString("namePrefix", ""));
+        name.put(StructuredName.GIVEN_NAME, contact.getString("givenName", ""));
+        name.put(StructuredName.MIDDLE_NAME, contact.getString("middleName", ""));
+        name.put(StructuredName.FAMILY_NAME, contact.getString("familyName", ""));
+        name.put(StructuredName.SUFFIX, contact.getString("nameSuffix", ""));
         data.add(name);
 
         ContentValues organisation = new ContentValues();
         organisation.put(MIMETYPE, Organization.CONTENT_ITEM_TYPE);
-        organisation.put(Organization.COMPANY, call.getString("organizationName", ""));
-        organisation.put(Organization.TITLE, call.getString("jobTitle", ""));
+        organisation.put(Organization.COMPANY, contact.getString("organizationName", ""));
+        organisation.put(Organization.TITLE, contact.getString("jobTitle", ""));
         data.add(organisation);
 
         // email addresses
-        JSArray emailAddressesArray = call.getArray("emailAddresses", new JSArray());
-        List<Object> emailAddresses = emailAddressesArray.toList();
-        for (int i = 0; i < emailAddresses.size(); i++) {
-            JSObject emailAddress = JSObject.fromJSONObject((JSONObject) emailAddresses.get(i));
+        for (JSObject emailAddress : getObjects(contact, "emailAddresses")) {
             ContentValues email = new ContentValues();
             email.put(MIMETYPE, Email.CONTENT_ITEM_TYPE);
             email.put(Email.TYPE, Email.TYPE_CUSTOM);
@@ -339,10 +693,7 @@ public class Contacts extends Plugin {
         }
 
         // phone numbers
-        JSArray phoneNumbersArray = call.getArray("phoneNumbers", new JSArray());
-        List<Object> phoneNumbers = phoneNumbersArray.toList();
-        for (int i = 0; i < phoneNumbers.size(); i++) {
-            JSObject phoneNumber = JSObject.fromJSONObject((JSONObject) phoneNumbers.get(i));
+        for (JSObject phoneNumber : getObjects(contact, "phoneNumbers")) {
             ContentValues phone = new ContentValues();
             phone.put(MIMETYPE, Phone.CONTENT_ITEM_TYPE);
             phone.put(Phone.TYPE, Phone.TYPE_CUSTOM);
@@ -352,10 +703,7 @@ public class Contacts extends Plugin {
         }
 
         // url addresses
-        JSArray urlAddressesArray = call.getArray("urlAddresses", new JSArray());
-        List<Object> urlAddresses = urlAddressesArray.toList();
-        for (int i = 0; i < urlAddresses.size(); i++) {
-            JSObject urlAddress = JSObject.fromJSONObject((JSONObject) urlAddresses.get(i));
+        for (JSObject urlAddress : getObjects(contact, "urlAddresses")) {
             ContentValues url = new ContentValues();
             url.put(MIMETYPE, Website.CONTENT_ITEM_TYPE);
             url.put(Website.TYPE, Website.TYPE_CUSTOM);
@@ -365,10 +713,7 @@ public class Contacts extends Plugin {
         }
 
         // postal addresses
-        JSArray postalAddressesArray = call.getArray("postalAddresses", new JSArray());
-        List<Object> postalAddresses = postalAddressesArray.toList();
-        for (int i = 0; i < postalAddresses.size(); i++) {
-            JSObject postalAddress = JSObject.fromJSONObject((JSONObject) postalAddresses.get(i));
+        for (JSObject postalAddress : getObjects(contact, "postalAddresses")) {
             ContentValues postal = new ContentValues();
             postal.put(MIMETYPE, StructuredPostal.CONTENT_ITEM_TYPE);
             postal.put(StructuredPostal.TYPE, StructuredPostal.TYPE_CUSTOM);
@@ -382,10 +727,7 @@ public class Contacts extends Plugin {
         }
 
         // social profiles
-        JSArray socialProfilesArray = call.getArray("socialProfiles", new JSArray());
-        List<Object> socialProfiles = socialProfilesArray.toList();
-        for (int i = 0; i < socialProfiles.size(); i++) {
-            JSObject socialProfile = JSObject.fromJSONObject((JSONObject) socialProfiles.get(i));
+        for (JSObject socialProfile : getObjects(contact, "socialProfiles")) {
             ContentValues url = new ContentValues();
             url.put(MIMETYPE, Website.CONTENT_ITEM_TYPE);
             url.put(Website.TYPE, Website.TYPE_CUSTOM);
@@ -398,48 +740,34 @@ public class Contacts extends Plugin {
         }
 
         // image
-        String image = call.getString("image", "");
-        if (image != null && !image.isEmpty()) {
+        byte[] image = photos.get(contact.getString("image", ""));
+        if (image != null) {
             ContentValues photo = new ContentValues();
             photo.put(MIMETYPE, Photo.CONTENT_ITEM_TYPE);
 
-            photo.put(Photo.PHOTO, this.getBytesFromUrl(image));
+            photo.put(Photo.PHOTO, image);
 
             data.add(photo);
         }
 
+        return data;
+    }
 
-
-
-        String identifier = call.getString("identifier", "");
-
-        Intent intent;
-
-        if(identifier.isEmpty()) {
-            intent = new Intent(Intent.ACTION_INSERT, ContactsContract.Contacts.CONTENT_URI);
-        } else {
-
-            long idContact = Long.parseLong(identifier);
-
-            // update contact
-            intent = new Intent(Intent.ACTION_EDIT);
-            Uri contactUri = ContentUris.withAppendedId(ContactsContract.Contacts.CONTENT_URI, idContact);
-            intent.setData(contactUri);
+    private static List<JSObject> getObjects(JSObject object, String key) throws JSONException {
+        List<JSObject> objects = new ArrayList<>();
+        JSONArray array = object.optJSONArray(key);
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject item = array.optJSONObject(i);
+                if (item != null) {
+                    objects.add(JSObject.fromJSONObject(item));
+                }
+            }
         }
-
-        intent.putParcelableArrayListExtra(ContactsContract.Intents.Insert.DATA, data);
-
-        // --- Save
-
-
-        getContext().startActivity(intent);
-
-        Log.w("", intent.toString());
-
-        call.resolve();
+        return objects;
     }
 
-    private String mapPhoneTypeToLabel(int type, String defaultLabel) {
+    static String mapPhoneTypeToLabel(int type, String defaultLabel) {
         switch (type) {
             case Phone.TYPE_MOBILE:
                 return "mobile";
@@ -486,7 +814,7 @@ public class Contacts extends Plugin {
         }
     }
 
-    private String mapEmailTypeToLabel(int type, String defaultLabel) {
+    static String mapEmailTypeToLabel(int type, String defaultLabel) {
         switch (type) {
             case Email.TYPE_HOME:
                 return "home";
@@ -500,25 +828,4 @@ public class Contacts extends Plugin {
                 return defaultLabel;
         }
     }
-
-    private byte[] getBytesFromUrl(String url) {
-
-        try {
-            URL imageUrl = new URL(url);
-            URLConnection ucon = imageUrl.openConnection();
-            InputStream is = ucon.getInputStream();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int read = 0;
-            while ((read = is.read(buffer, 0, buffer.length)) != -1) {
-                baos.write(buffer, 0, read);
-            }
-            baos.flush();
-            return baos.toByteArray();
-//      return "data:image/png;base64," + Base64.encodeToString(baos.toByteArray(), Base64.NO_WRAP);
-        } catch (Exception e) {
-            Log.d("Error", e.toString());
-        }
-        return null;
-    }
 }
@@ -0,0 +1,368 @@
+package ch.byrds.capacitor.contacts;
+
+import static android.provider.ContactsContract.Data.MIMETYPE;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.os.RemoteException;
+import android.os.TransactionTooLargeException;
+import android.provider.ContactsContract;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes contacts directly through ContentResolver.applyBatch, one batch of
+ * contacts per transaction with a yield point between contacts.
+ * New contacts get a raw contact the data rows refer to by back-reference.
+ * Existing contacts get the rows of their first raw contact replaced, for the
+ * mimetypes written with them: an update without an image keeps the photo.
+ *
+ * A batch is bounded by its operations and photo bytes as well, as the whole
+ * batch is sent in one binder transaction. A batch that fails before anything
+ * was applied is split and retried, so only the contacts that fail on their
+ * own get an error. When a batch fails after some of its yield points, the
+ * contacts before them are committed and keep their results.
+ */
+class ContactsBatchWriter {
+
+    static final int DEFAULT_BATCH_SIZE = 50;
+
+    /**
+     * Operations per transaction, the platform provider rejects more than 500
+     * operations between yield points.
+     */
+    static final int MAX_BATCH_OPERATIONS = 400;
+
+    /**
+     * Photo bytes per transaction, well below the binder transaction limit of 1 MB.
+     */
+    static final int MAX_BATCH_BLOB_BYTES = 512 * 1024;
+
+    /**
+     * Contact to write, contactId is -1 for a new contact.
+     */
+    static class Entry {
+
+        final long contactId;
+        final List<ContentValues> data;
+
+        Entry(long contactId, List<ContentValues> data) {
+            this.contactId = contactId;
+            this.data = data;
+        }
+    }
+
+    private final ContentResolver contentResolver;
+    private final String accountType;
+    private final String accountName;
+
+    ContactsBatchWriter(ContentResolver contentResolver, String accountType, String accountName) {
+        this.contentResolver = contentResolver;
+        this.accountType = accountType;
+        this.accountName = accountName;
+    }
+
+    /**
+     * Writes the entries in as few transactions as the batch bounds allow.
+     *
+     * @return per entry the contact id and whether it was created, or an error
+     */
+    List<JSObject> write(List<Entry> entries) {
+        List<JSObject> results = new ArrayList<>(entries.size());
+        Map<Long, Long> rawContactIds = findRawContactIds(entries);
+
+        int start = 0;
+        int operations = 0;
+        int blobBytes = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            int entryOperations = entry.data.size() + 1;
+            int entryBlobBytes = blobBytes(entry);
+            if (i > start && (operations + entryOperations > MAX_BATCH_OPERATIONS
+                    || blobBytes + entryBlobBytes > MAX_BATCH_BLOB_BYTES)) {
+                results.addAll(apply(entries.subList(start, i), rawContactIds));
+                start = i;
+                operations = 0;
+                blobBytes = 0;
+            }
+            operations += entryOperations;
+            blobBytes += entryBlobBytes;
+        }
+        if (start < entries.size()) {
+            results.addAll(apply(entries.subList(start, entries.size()), rawContactIds));
+        }
+        return results;
+    }
+
+    /**
+     * Writes the entries in one transaction, or splits them if the transaction
+     * fails before anything was applied.
+     *
+     * @param rawContactIds the first raw contact of each existing contact
+     */
+    private List<JSObject> apply(List<Entry> entries, Map<Long, Long> rawContactIds) {
+        List<JSObject> results = new ArrayList<>(entries.size());
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        int[] rawContactOperations = new int[entries.size()];
+        // entries with operations, each starting at a yield point
+        int writtenEntries = 0;
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            rawContactOperations[i] = -1;
+
+            if (entry.contactId == -1) {
+                rawContactOperations[i] = operations.size();
+                operations.add(
+                        ContentProviderOperation
+                                .newInsert(ContactsContract.RawContacts.CONTENT_URI)
+                                .withValue(ContactsContract.RawContacts.ACCOUNT_TYPE, accountType)
+                                .withValue(ContactsContract.RawContacts.ACCOUNT_NAME, accountName)
+                                .withYieldAllowed(true)
+                                .build()
+                );
+                writtenEntries++;
+                for (ContentValues values : entry.data) {
+                    operations.add(
+                            ContentProviderOperation
+                                    .newInsert(ContactsContract.Data.CONTENT_URI)
+                                    .withValueBackReference(ContactsContract.Data.RAW_CONTACT_ID, rawContactOperations[i])
+                                    .withValues(values)
+                                    .build()
+                    );
+                }
+            } else {
+                Long rawContactId = rawContactIds.get(entry.contactId);
+                if (rawContactId == null) {
+                    continue;
+                }
+
+                Set<String> mimeTypes = mimeTypes(entry);
+                String[] selectionArgs = new String[mimeTypes.size() + 1];
+                selectionArgs[0] = String.valueOf(rawContactId);
+                int arg = 1;
+                for (String mimeType : mimeTypes) {
+                    selectionArgs[arg++] = mimeType;
+                }
+                operations.add(
+                        ContentProviderOperation
+                                .newDelete(ContactsContract.Data.CONTENT_URI)
+                                .withSelection(
+                                        ContactsContract.Data.RAW_CONTACT_ID + "=? AND " +
+                                                ContactsQuery.inSelection(MIMETYPE, mimeTypes.size()),
+                                        selectionArgs
+                                )
+                                .withYieldAllowed(true)
+                                .build()
+                );
+                writtenEntries++;
+                for (ContentValues values : entry.data) {
+                    operations.add(
+                            ContentProviderOperation
+                                    .newInsert(ContactsContract.Data.CONTENT_URI)
+                                    .withValue(ContactsContract.Data.RAW_CONTACT_ID, rawContactId)
+                                    .withValues(values)
+                                    .build()
+                    );
+                }
+            }
+        }
+
+        ContentProviderResult[] operationResults;
+        try {
+            operationResults = contentResolver.applyBatch(ContactsContract.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException
+                | SQLiteException | IllegalArgumentException | SecurityException e) {
+            // the provider fails this batch only, the batches written before keep their results
+            if (entries.size() > 1 && !applied(e)) {
+                int half = entries.size() / 2;
+                results.addAll(apply(entries.subList(0, half), rawContactIds));
+                results.addAll(apply(entries.subList(half, entries.size()), rawContactIds));
+                return results;
+            }
+            return failed(entries, rawContactIds, rawContactOperations, committedEntries(e, writtenEntries), e.getMessage());
+        }
+
+        List<Long> createdRawContactIds = new ArrayList<>();
+        for (int rawContactOperation : rawContactOperations) {
+            if (rawContactOperation != -1) {
+                createdRawContactIds.add(ContentUris.parseId(operationResults[rawContactOperation].uri));
+            }
+        }
+        Map<Long, Long> createdContactIds = findContactIds(createdRawContactIds);
+
+        int created = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            JSObject result = new JSObject();
+            if (rawContactOperations[i] != -1) {
+                Long contactId = createdContactIds.get(createdRawContactIds.get(created++));
+                if (contactId != null) {
+                    result.put(Contacts.CONTACT_ID, String.valueOf(contactId));
+                }
+                result.put("created", true);
+            } else if (rawContactIds.containsKey(entry.contactId)) {
+                result.put(Contacts.CONTACT_ID, String.valueOf(entry.contactId));
+                result.put("created", false);
+            } else {
+                result = error("Contact " + entry.contactId + " not found");
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Results of a batch that failed after the given number of its written
+     * entries was committed. The raw contact ids of committed new contacts are
+     * lost with the batch results, so they are reported without a contact id.
+     */
+    private static List<JSObject> failed(List<Entry> entries, Map<Long, Long> rawContactIds,
+                                         int[] rawContactOperations, int committed, String message) {
+        List<JSObject> results = new ArrayList<>(entries.size());
+        int written = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            boolean isNew = rawContactOperations[i] != -1;
+            if (!isNew && !rawContactIds.containsKey(entry.contactId)) {
+                results.add(error("Contact " + entry.contactId + " not found"));
+            } else if (written++ < committed) {
+                JSObject result = new JSObject();
+                if (!isNew) {
+                    result.put(Contacts.CONTACT_ID, String.valueOf(entry.contactId));
+                }
+                result.put("created", isNew);
+                results.add(result);
+            } else {
+                results.add(error(message));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Number of written entries committed before the batch failed. Every entry
+     * starts at a yield point, and the provider commits the operations before
+     * each yield point it counts as successful.
+     */
+    private static int committedEntries(Exception e, int writtenEntries) {
+        if (e instanceof OperationApplicationException) {
+            return Math.min(((OperationApplicationException) e).getNumSuccessfulYieldPoints(), writtenEntries);
+        }
+        return 0;
+    }
+
+    /**
+     * Whether a failed transaction may have applied operations. A transaction
+     * too large for the binder was never sent, and the provider rolls back
+     * everything after the last yield point.
+     */
+    private static boolean applied(Exception e) {
+        if (e instanceof TransactionTooLargeException) {
+            return false;
+        }
+        if (e instanceof OperationApplicationException) {
+            return ((OperationApplicationException) e).getNumSuccessfulYieldPoints() > 0;
+        }
+        // the provider may have died while applying the batch
+        return true;
+    }
+
+    private static Set<String> mimeTypes(Entry entry) {
+        Set<String> mimeTypes = new LinkedHashSet<>();
+        for (ContentValues values : entry.data) {
+            mimeTypes.add(values.getAsString(MIMETYPE));
+        }
+        return mimeTypes;
+    }
+
+    private static int blobBytes(Entry entry) {
+        int bytes = 0;
+        for (ContentValues values : entry.data) {
+            for (Map.Entry<String, Object> value : values.valueSet()) {
+                if (value.getValue() instanceof byte[]) {
+                    bytes += ((byte[]) value.getValue()).length;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private Map<Long, Long> findRawContactIds(List<Entry> entries) {
+        List<String> contactIds = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.contactId != -1) {
+                contactIds.add(String.valueOf(entry.contactId));
+            }
+        }
+
+        // first raw contact of each contact
+        Map<Long, Long> rawContactIds = new HashMap<>();
+        if (contactIds.isEmpty()) {
+            return rawContactIds;
+        }
+        Cursor cursor = contentResolver.query(
+                ContactsContract.RawContacts.CONTENT_URI,
+                new String[]{ContactsContract.RawContacts.CONTACT_ID, ContactsContract.RawContacts._ID},
+                ContactsContract.RawContacts.DELETED + "=0 AND " +
+                        ContactsQuery.inSelection(ContactsContract.RawContacts.CONTACT_ID, contactIds.size()),
+                contactIds.toArray(new String[0]),
+                ContactsContract.RawContacts._ID + " ASC"
+        );
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                long contactId = cursor.getLong(0);
+                if (!rawContactIds.containsKey(contactId)) {
+                    rawContactIds.put(contactId, cursor.getLong(1));
+                }
+            }
+            cursor.close();
+        }
+        return rawContactIds;
+    }
+
+    private Map<Long, Long> findContactIds(List<Long> rawContactIds) {
+        Map<Long, Long> contactIds = new HashMap<>();
+        if (rawContactIds.isEmpty()) {
+            return contactIds;
+        }
+        String[] selectionArgs = new String[rawContactIds.size()];
+        for (int i = 0; i < rawContactIds.size(); i++) {
+            selectionArgs[i] = String.valueOf(rawContactIds.get(i));
+        }
+        Cursor cursor = contentResolver.query(
+                ContactsContract.RawContacts.CONTENT_URI,
+                new String[]{ContactsContract.RawContacts._ID, ContactsContract.RawContacts.CONTACT_ID},
+                ContactsQuery.inSelection(ContactsContract.RawContacts._ID, selectionArgs.length),
+                selectionArgs,
+                null
+        );
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                contactIds.put(cursor.getLong(0), cursor.getLong(1));
+            }
+            cursor.close();
+        }
+        return contactIds;
+    }
+
+    private static JSObject error(String message) {
+        JSObject result = new JSObject();
+        result.put("error", message);
+        return result;
+    }
+}
@@ -0,0 +1,174 @@
+package ch.byrds.capacitor.contacts;
+
+import static android.provider.ContactsContract.Data.MIMETYPE;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Deletes raw contacts in chunks of at most {@link ContactsQuery#MAX_SELECTION_ARGS}
+ * selection arguments, one provider call per chunk. Deleting all raw contacts
+ * of a contact deletes the contact.
+ */
+class ContactsDeleter {
+
+    interface ProgressListener {
+        /**
+         * @param processed ids, lookup keys or raw contacts handled so far, out of total
+         * @param deleted   raw contacts deleted so far
+         */
+        void onProgress(int processed, int total, int deleted);
+    }
+
+    private final ContentResolver contentResolver;
+    private final CancellationSignal signal;
+    private final ProgressListener progressListener;
+
+    private int processed;
+    private int total;
+    private int deleted;
+
+    ContactsDeleter(ContentResolver contentResolver, CancellationSignal signal, ProgressListener progressListener) {
+        this.contentResolver = contentResolver;
+        this.signal = signal;
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Number of raw contacts deleted so far.
+     */
+    int getDeleted() {
+        return deleted;
+    }
+
+    void deleteByContactIds(List<String> contactIds) {
+        deleteIn(ContactsContract.RawContacts.CONTACT_ID, contactIds);
+    }
+
+    void deleteByGroup(String groupId) {
+        List<String> rawContactIds = new ArrayList<>();
+        Cursor cursor = contentResolver.query(
+                ContactsContract.Data.CONTENT_URI,
+                new String[]{ContactsContract.Data.RAW_CONTACT_ID},
+                MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=?",
+                new String[]{GroupMembership.CONTENT_ITEM_TYPE, groupId},
+                null,
+                signal
+        );
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    rawContactIds.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        deleteIn(ContactsContract.RawContacts._ID, rawContactIds);
+    }
+
+    void deleteByAccount(String accountType, String accountName) {
+        signal.throwIfCanceled();
+        String selection;
+        String[] selectionArgs;
+        if (accountName != null) {
+            selection = ContactsContract.RawContacts.ACCOUNT_TYPE + "=? AND " + ContactsContract.RawContacts.ACCOUNT_NAME + "=?";
+            selectionArgs = new String[]{accountType, accountName};
+        } else {
+            selection = ContactsContract.RawContacts.ACCOUNT_TYPE + "=?";
+            selectionArgs = new String[]{accountType};
+        }
+        int count = contentResolver.delete(ContactsContract.RawContacts.CONTENT_URI, selection, selectionArgs);
+        total += count;
+        report(count, count);
+    }
+
+    /**
+     * Resolves the lookup keys to contact ids and deletes the raw contacts of
+     * these contacts, so the count is in raw contacts as for the other deletes.
+     */
+    void deleteByLookupKeys(List<String> lookupKeys) {
+        total += lookupKeys.size();
+        for (int offset = 0; offset < lookupKeys.size(); offset += ContactsQuery.MAX_SELECTION_ARGS) {
+            signal.throwIfCanceled();
+            List<String> chunk = lookupKeys.subList(offset, Math.min(offset + ContactsQuery.MAX_SELECTION_ARGS, lookupKeys.size()));
+            List<String> contactIds = findContactIds(chunk);
+            report(chunk.size(), contactIds.isEmpty() ? 0 : delete(ContactsContract.RawContacts.CONTACT_ID, contactIds));
+        }
+    }
+
+    /**
+     * Contacts of the lookup keys. Keys that do not match a contact exactly, e.g.
+     * after contacts were joined or split, are resolved one by one through the
+     * lookup URI, which also finds the contacts of stale keys.
+     */
+    private List<String> findContactIds(List<String> lookupKeys) {
+        Set<String> contactIds = new LinkedHashSet<>();
+        Set<String> unresolved = new LinkedHashSet<>(lookupKeys);
+        Cursor cursor = contentResolver.query(
+                ContactsContract.Contacts.CONTENT_URI,
+                new String[]{ContactsContract.Contacts._ID, ContactsContract.Contacts.LOOKUP_KEY},
+                ContactsQuery.inSelection(ContactsContract.Contacts.LOOKUP_KEY, lookupKeys.size()),
+                lookupKeys.toArray(new String[0]),
+                null,
+                signal
+        );
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    contactIds.add(cursor.getString(0));
+                    unresolved.remove(cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        for (String lookupKey : unresolved) {
+            signal.throwIfCanceled();
+            Uri lookupUri = Uri.withAppendedPath(ContactsContract.Contacts.CONTENT_LOOKUP_URI, lookupKey);
+            Uri contactUri = ContactsContract.Contacts.lookupContact(contentResolver, lookupUri);
+            if (contactUri != null) {
+                contactIds.add(String.valueOf(ContentUris.parseId(contactUri)));
+            }
+        }
+        return new ArrayList<>(contactIds);
+    }
+
+    private void deleteIn(String column, List<String> ids) {
+        total += ids.size();
+        for (int offset = 0; offset < ids.size(); offset += ContactsQuery.MAX_SELECTION_ARGS) {
+            signal.throwIfCanceled();
+            List<String> chunk = ids.subList(offset, Math.min(offset + ContactsQuery.MAX_SELECTION_ARGS, ids.size()));
+            report(chunk.size(), delete(column, chunk));
+        }
+    }
+
+    /**
+     * Deletes the raw contacts whose column is one of the values, at most
+     * {@link ContactsQuery#MAX_SELECTION_ARGS} of them.
+     */
+    private int delete(String column, List<String> values) {
+        return contentResolver.delete(
+                ContactsContract.RawContacts.CONTENT_URI,
+                ContactsQuery.inSelection(column, values.size()),
+                values.toArray(new String[0])
+        );
+    }
+
+    private void report(int processedCount, int deletedCount) {
+        processed += processedCount;
+        deleted += deletedCount;
+        progressListener.onProgress(processed, total, deleted);
+    }
+}
@@ -0,0 +1,300 @@
+package ch.byrds.capacitor.contacts;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs contact reads off the plugin call thread, and writes one after the other
+ * on a thread of their own, so a long write never holds up the reads.
+ * Calls with the same coalesce key share one in-flight read and its result,
+ * calls passing a callId option can be cancelled through {@link #cancel(String)}.
+ * Each run is measured through {@link ContactsMetrics}.
+ */
+class ContactsExecutor {
+
+    static final String CALL_ID = "callId";
+    static final String CANCELLED = "CANCELLED";
+
+    /**
+     * Maximum number of partitions a single read is split into.
+     */
+    static final int MAX_PARALLELISM = 4;
+
+    private static final int THREADS = 2;
+
+    interface Task {
+        /**
+         * @param metrics metrics of the run, {@link CallMetrics#NONE} if not measured
+         */
+        JSObject run(CancellationSignal signal, CallMetrics metrics) throws Exception;
+    }
+
+    /**
+     * A running task and the calls waiting for its result.
+     */
+    private static class InFlight {
+
+        final String coalesceKey;
+        final CallMetrics metrics;
+        final CancellationSignal signal = new CancellationSignal();
+        final List<PluginCall> calls = new ArrayList<>(1);
+
+        InFlight(String coalesceKey, CallMetrics metrics) {
+            this.coalesceKey = coalesceKey;
+            this.metrics = metrics;
+        }
+    }
+
+    private final ExecutorService executorService;
+    private final ExecutorService writeExecutorService;
+    private final ExecutorService partitionExecutorService;
+    private final ContactsMetrics metrics;
+    private final Map<String, InFlight> inFlightByKey = new HashMap<>();
+    private final Map<String, InFlight> inFlightByCallId = new HashMap<>();
+
+    ContactsExecutor(ContactsMetrics metrics) {
+        this.metrics = metrics;
+        this.executorService = Executors.newFixedThreadPool(THREADS, threadFactory("ContactsQuery-"));
+        this.writeExecutorService = Executors.newSingleThreadExecutor(threadFactory("ContactsWrite-"));
+        // separate from the call threads, a call waiting for its partitions never blocks them
+        this.partitionExecutorService = Executors.newFixedThreadPool(MAX_PARALLELISM, threadFactory("ContactsPartition-"));
+    }
+
+    private static ThreadFactory threadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Runs the partitions of parallel reads, see {@link ContactsReader}.
+     */
+    ExecutorService partitionExecutor() {
+        return partitionExecutorService;
+    }
+
+    /**
+     * Key identifying calls of the same method with the same options, the callId excluded.
+     */
+    static String coalesceKey(PluginCall call) {
+        JSObject data = call.getData();
+        if (data == null) {
+            return call.getMethodName();
+        }
+        try {
+            JSObject options = new JSObject(data.toString());
+            options.remove(CALL_ID);
+            return call.getMethodName() + ":" + options;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs the task for the call, or attaches the call to a running task with the same coalesce key.
+     *
+     * @param coalesceKey key of the call, null if the call must not be coalesced
+     */
+    void execute(PluginCall call, String coalesceKey, final Task task) {
+        execute(executorService, call, coalesceKey, task);
+    }
+
+    /**
+     * Runs a task that changes the address book or writes files, after the writes
+     * submitted before it. Writes are never coalesced.
+     */
+    void executeWrite(PluginCall call, final Task task) {
+        execute(writeExecutorService, call, null, task);
+    }
+
+    private void execute(ExecutorService service, PluginCall call, String coalesceKey, final Task task) {
+        final InFlight inFlight;
+        synchronized (this) {
+            InFlight running = coalesceKey != null ? inFlightByKey.get(coalesceKey) : null;
+            if (running != null) {
+                attach(running, call);
+                return;
+            }
+
+            inFlight = new InFlight(coalesceKey, metrics.start(call));
+            attach(inFlight, call);
+            if (coalesceKey != null) {
+                inFlightByKey.put(coalesceKey, inFlight);
+            }
+        }
+
+        service.execute(() -> {
+            JSObject result = null;
+            Exception error = null;
+            long start = inFlight.metrics.start();
+            try {
+                inFlight.signal.throwIfCanceled();
+                result = task.run(inFlight.signal, inFlight.metrics);
+            } catch (Exception e) {
+                error = e;
+            }
+            inFlight.metrics.stop(CallMetrics.Phase.TOTAL, start);
+
+            List<PluginCall> calls;
+            synchronized (this) {
+                detachAll(inFlight);
+                calls = new ArrayList<>(inFlight.calls);
+                inFlight.calls.clear();
+            }
+
+            if (error == null) {
+                inFlight.metrics.setPayload(result);
+            }
+            long resolveStart = inFlight.metrics.start();
+            for (PluginCall waitingCall : calls) {
+                if (error == null) {
+                    waitingCall.resolve(withMetrics(waitingCall, result, inFlight.metrics));
+                } else if (error instanceof OperationCanceledException) {
+                    waitingCall.reject("Cancelled", CANCELLED);
+                } else {
+                    Log.w(Contacts.LOG_TAG, waitingCall.getMethodName() + " failed", error);
+                    waitingCall.reject(error.getMessage(), error);
+                }
+            }
+            inFlight.metrics.stop(CallMetrics.Phase.RESOLVE, resolveStart);
+            metrics.record(inFlight.metrics, error != null);
+        });
+    }
+
+    /**
+     * Resolves the call with a result that needs no background work, e.g. a cached one.
+     *
+     * @param payloadBytes UTF-8 length of the serialized result
+     */
+    void resolve(PluginCall call, JSObject result, long payloadBytes) {
+        CallMetrics callMetrics = metrics.start(call);
+        callMetrics.setPayloadBytes(payloadBytes);
+        long start = callMetrics.start();
+        call.resolve(withMetrics(call, result, callMetrics));
+        callMetrics.stop(CallMetrics.Phase.RESOLVE, start);
+        callMetrics.stop(CallMetrics.Phase.TOTAL, start);
+        metrics.record(callMetrics, false);
+    }
+
+    /**
+     * Runs background work that is not bound to a call.
+     */
+    void submit(final Runnable runnable) {
+        executorService.execute(() -> {
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                Log.w(Contacts.LOG_TAG, "Background task failed", e);
+            }
+        });
+    }
+
+    /**
+     * Rejects the call with the given callId. The underlying read is cancelled
+     * once no other coalesced call waits for it.
+     *
+     * @return false if no call with this callId is running
+     */
+    boolean cancel(String callId) {
+        PluginCall cancelledCall = null;
+        synchronized (this) {
+            InFlight inFlight = inFlightByCallId.remove(callId);
+            if (inFlight == null) {
+                return false;
+            }
+
+            for (PluginCall call : inFlight.calls) {
+                if (callId.equals(call.getString(CALL_ID))) {
+                    cancelledCall = call;
+                    break;
+                }
+            }
+            inFlight.calls.remove(cancelledCall);
+
+            if (inFlight.calls.isEmpty()) {
+                inFlight.signal.cancel();
+                if (inFlight.coalesceKey != null && inFlightByKey.get(inFlight.coalesceKey) == inFlight) {
+                    inFlightByKey.remove(inFlight.coalesceKey);
+                }
+            }
+        }
+
+        if (cancelledCall != null) {
+            cancelledCall.reject("Cancelled", CANCELLED);
+        }
+        return true;
+    }
+
+    void shutdown() {
+        synchronized (this) {
+            for (InFlight inFlight : inFlightByCallId.values()) {
+                inFlight.signal.cancel();
+            }
+            for (InFlight inFlight : inFlightByKey.values()) {
+                inFlight.signal.cancel();
+            }
+        }
+        executorService.shutdownNow();
+        writeExecutorService.shutdownNow();
+        partitionExecutorService.shutdownNow();
+    }
+
+    /**
+     * Adds the metrics to a copy of the result if the call asks for them,
+     * the result itself may be shared with other calls or cached.
+     */
+    private static JSObject withMetrics(PluginCall call, JSObject result, CallMetrics callMetrics) {
+        if (result == null || !call.getBoolean(ContactsMetrics.METRICS, false)) {
+            return result;
+        }
+        JSObject copy = new JSObject();
+        Iterator<String> keys = result.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            copy.put(key, result.opt(key));
+        }
+        copy.put(ContactsMetrics.METRICS, callMetrics.toJSObject());
+        return copy;
+    }
+
+    private void attach(InFlight inFlight, PluginCall call) {
+        inFlight.calls.add(call);
+        String callId = call.getString(CALL_ID);
+        if (callId != null) {
+            inFlightByCallId.put(callId, inFlight);
+        }
+    }
+
+    private void detachAll(InFlight inFlight) {
+        if (inFlight.coalesceKey != null && inFlightByKey.get(inFlight.coalesceKey) == inFlight) {
+            inFlightByKey.remove(inFlight.coalesceKey);
+        }
+        for (PluginCall call : inFlight.calls) {
+            String callId = call.getString(CALL_ID);
+            if (callId != null && inFlightByCallId.get(callId) == inFlight) {
+                inFlightByCallId.remove(callId);
+            }
+        }
+    }
+}
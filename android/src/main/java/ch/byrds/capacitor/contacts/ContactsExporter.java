@@ -0,0 +1,306 @@
+package ch.byrds.capacitor.contacts;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.util.Base64;
+
+import com.getcapacitor.JSObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams contacts from the Data cursor into a vCard 3.0 or newline delimited
+ * JSON file. Every contact is written as soon as its rows are decoded, so the
+ * heap holds one contact and the write buffers, whatever the size of the book.
+ * The file is written under a temporary name and renamed when complete, so a
+ * failed or cancelled export leaves no partial file behind.
+ */
+class ContactsExporter {
+
+    static final String FORMAT_VCF = "vcf";
+    static final String FORMAT_NDJSON = "ndjson";
+
+    /**
+     * Contacts between progress events.
+     */
+    static final int PROGRESS_INTERVAL = 500;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Maximum line length of a vCard in octets of UTF-8, without the line break,
+     * before it is folded.
+     */
+    private static final int VCARD_LINE_LENGTH = 75;
+
+    interface ProgressListener {
+        /**
+         * @param bytes bytes written to the file so far, compressed if gzipped
+         */
+        void onProgress(int exported, long bytes);
+    }
+
+    private final ContentResolver contentResolver;
+    private final CancellationSignal signal;
+    private final CallMetrics metrics;
+
+    ContactsExporter(ContentResolver contentResolver, CancellationSignal signal, CallMetrics metrics) {
+        this.contentResolver = contentResolver;
+        this.signal = signal;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param format one of the FORMAT constants
+     * @return the number of contacts and bytes written
+     */
+    JSObject export(ContactsQuery query, String format, File file, boolean gzip, ProgressListener progressListener) throws IOException {
+        boolean vcf = FORMAT_VCF.equals(format);
+        if (!vcf && !FORMAT_NDJSON.equals(format)) {
+            throw new IllegalArgumentException("Unknown format " + format);
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File partFile = new File(file.getPath() + ".part");
+
+        int count = 0;
+        boolean complete = false;
+        FileOutputStream fileStream = new FileOutputStream(partFile);
+        try {
+            OutputStream stream = gzip ? new GZIPOutputStream(fileStream, BUFFER_SIZE) : fileStream;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+            try {
+                long start = metrics.start();
+                Cursor cursor = contentResolver.query(
+                        ContactsContract.Data.CONTENT_URI,
+                        query.projection,
+                        query.selection,
+                        query.selectionArgs,
+                        ContactsContract.Data.CONTACT_ID + " ASC",
+                        signal
+                );
+                metrics.stop(CallMetrics.Phase.QUERY, start);
+
+                if (cursor != null) {
+                    try {
+                        ContactRowDecoder decoder = new ContactRowDecoder(cursor);
+                        while (true) {
+                            start = metrics.start();
+                            ContactRecord contact = decoder.nextContact();
+                            metrics.stop(CallMetrics.Phase.ITERATE, start);
+                            if (contact == null) {
+                                break;
+                            }
+                            signal.throwIfCanceled();
+
+                            start = metrics.start();
+                            if (vcf) {
+                                writeVCard(writer, contact);
+                            } else {
+                                writer.write(contact.toJSObject().toString());
+                                writer.write('\n');
+                            }
+                            metrics.stop(CallMetrics.Phase.SERIALIZE, start);
+
+                            count++;
+                            if (progressListener != null && count % PROGRESS_INTERVAL == 0) {
+                                progressListener.onProgress(count, fileStream.getChannel().position());
+                            }
+                        }
+                        metrics.addRows(decoder.rowCount());
+                        metrics.addContacts(count);
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            } finally {
+                // also finishes the gzip trailer
+                writer.close();
+            }
+            complete = true;
+        } finally {
+            fileStream.close();
+            if (!complete) {
+                partFile.delete();
+            }
+        }
+
+        if (!partFile.renameTo(file)) {
+            partFile.delete();
+            throw new IOException("Cannot write " + file);
+        }
+        long bytes = file.length();
+        if (progressListener != null) {
+            progressListener.onProgress(count, bytes);
+        }
+
+        JSObject result = new JSObject();
+        result.put("path", file.getAbsolutePath());
+        result.put("count", count);
+        result.put("bytes", bytes);
+        return result;
+    }
+
+    static void writeVCard(Writer writer, ContactRecord contact) throws IOException {
+        writeLine(writer, "BEGIN:VCARD");
+        writeLine(writer, "VERSION:3.0");
+        String displayName = contact.displayName != null ? contact.displayName : "";
+        writeLine(writer, "FN:" + escape(displayName));
+        // the structured name is not read, N is required though
+        writeLine(writer, "N:" + escape(displayName) + ";;;;");
+        for (ContactRecord.LabeledValue phoneNumber : contact.phoneNumbers) {
+            writeLine(writer, "TEL" + typeParameter(phoneType(phoneNumber)) + ":" + escape(phoneNumber.value));
+        }
+        for (ContactRecord.LabeledValue email : contact.emails) {
+            writeLine(writer, "EMAIL" + typeParameter(emailType(email)) + ":" + escape(email.value));
+        }
+        if (contact.hasOrganization) {
+            writeLine(writer, "ORG:" + escape(contact.organizationName != null ? contact.organizationName : ""));
+            if (contact.organizationRole != null && !contact.organizationRole.isEmpty()) {
+                writeLine(writer, "TITLE:" + escape(contact.organizationRole));
+            }
+        }
+        if (contact.birthday != null) {
+            writeLine(writer, "BDAY:" + escape(contact.birthday));
+        }
+        if (contact.photoThumbnail != null) {
+            writeLine(writer, "PHOTO;ENCODING=b;TYPE=" + imageType(contact.photoThumbnail) + ":"
+                    + Base64.encodeToString(contact.photoThumbnail, Base64.NO_WRAP));
+        }
+        writeLine(writer, "END:VCARD");
+    }
+
+    /**
+     * Writes a content line folded after {@link #VCARD_LINE_LENGTH} octets,
+     * never within the encoding of a character. Continuation lines start with
+     * a space.
+     */
+    private static void writeLine(Writer writer, String line) throws IOException {
+        int start = 0;
+        int octets = 0;
+        int i = 0;
+        while (i < line.length()) {
+            int codePoint = line.codePointAt(i);
+            int codePointOctets = utf8Length(codePoint);
+            if (octets + codePointOctets > VCARD_LINE_LENGTH) {
+                writer.write(line, start, i - start);
+                writer.write("\r\n ");
+                start = i;
+                // the leading space counts towards the line length
+                octets = 1;
+            }
+            octets += codePointOctets;
+            i += Character.charCount(codePoint);
+        }
+        writer.write(line, start, line.length() - start);
+        writer.write("\r\n");
+    }
+
+    private static int utf8Length(int codePoint) {
+        if (codePoint < 0x80) {
+            return 1;
+        } else if (codePoint < 0x800) {
+            return 2;
+        } else if (codePoint < 0x10000) {
+            return 3;
+        }
+        return 4;
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                case ',':
+                case ';':
+                    escaped.append('\\').append(c);
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String typeParameter(String type) {
+        return type != null ? ";TYPE=" + type : "";
+    }
+
+    private static String phoneType(ContactRecord.LabeledValue phoneNumber) {
+        switch (phoneNumber.type) {
+            case Phone.TYPE_MOBILE:
+                return "CELL";
+            case Phone.TYPE_HOME:
+                return "HOME";
+            case Phone.TYPE_WORK:
+                return "WORK";
+            case Phone.TYPE_FAX_HOME:
+                return "HOME,FAX";
+            case Phone.TYPE_FAX_WORK:
+                return "WORK,FAX";
+            case Phone.TYPE_PAGER:
+                return "PAGER";
+            case Phone.TYPE_CUSTOM:
+                return customType(phoneNumber.label);
+            default:
+                return null;
+        }
+    }
+
+    private static String emailType(ContactRecord.LabeledValue email) {
+        switch (email.type) {
+            case Email.TYPE_HOME:
+                return "INTERNET,HOME";
+            case Email.TYPE_WORK:
+                return "INTERNET,WORK";
+            case Email.TYPE_CUSTOM:
+                String custom = customType(email.label);
+                return custom != null ? "INTERNET," + custom : "INTERNET";
+            default:
+                return "INTERNET";
+        }
+    }
+
+    /**
+     * A custom label as extension type, only letters, digits and dashes are allowed.
+     */
+    private static String customType(String label) {
+        if (label == null) {
+            return null;
+        }
+        StringBuilder type = new StringBuilder("X-");
+        for (int i = 0; i < label.length(); i++) {
+            char c = label.charAt(i);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-') {
+                type.append(c);
+            }
+        }
+        return type.length() > 2 ? type.toString() : null;
+    }
+
+    private static String imageType(byte[] image) {
+        boolean png = image.length > 3 && (image[0] & 0xff) == 0x89 && image[1] == 'P' && image[2] == 'N' && image[3] == 'G';
+        return png ? "PNG" : "JPEG";
+    }
+}
@@ -0,0 +1,111 @@
+package ch.byrds.capacitor.contacts;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.PluginCall;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Metrics of the plugin calls aggregated per method. Calls are measured while
+ * collection is enabled, or when they pass the metrics option to get their own
+ * metrics in the result.
+ *
+ * Only calls run by the {@link ContactsExecutor} are measured. getPermissions
+ * waits for the user, and setSnapshotCache, cancel and the metrics methods
+ * only change plugin state without reading the provider, so they are not.
+ */
+class ContactsMetrics {
+
+    static final String METRICS = "metrics";
+
+    private static class MethodMetrics {
+
+        long calls;
+        long errors;
+        final long[] phaseNanos = new long[CallMetrics.Phase.values().length];
+        long maxTotalNanos;
+        long rows;
+        long contacts;
+        long payloadBytes;
+
+        JSObject toJSObject() {
+            JSObject jsMetrics = new JSObject();
+            jsMetrics.put("calls", calls);
+            jsMetrics.put("errors", errors);
+            for (CallMetrics.Phase phase : CallMetrics.Phase.values()) {
+                jsMetrics.put(phase.key, CallMetrics.millis(phaseNanos[phase.ordinal()]));
+            }
+            jsMetrics.put("maxTotalMs", CallMetrics.millis(maxTotalNanos));
+            jsMetrics.put("rows", rows);
+            jsMetrics.put("contacts", contacts);
+            jsMetrics.put("payloadBytes", payloadBytes);
+            return jsMetrics;
+        }
+    }
+
+    private volatile boolean enabled;
+    private final Map<String, MethodMetrics> methods = new TreeMap<>();
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Metrics for the call, {@link CallMetrics#NONE} if neither collection
+     * is enabled nor the call asks for its metrics.
+     */
+    CallMetrics start(PluginCall call) {
+        if (!enabled && !call.getBoolean(METRICS, false)) {
+            return CallMetrics.NONE;
+        }
+        return new CallMetrics(call.getMethodName(), true);
+    }
+
+    void record(CallMetrics callMetrics, boolean failed) {
+        if (!enabled || !callMetrics.enabled) {
+            return;
+        }
+        synchronized (methods) {
+            MethodMetrics method = methods.get(callMetrics.methodName);
+            if (method == null) {
+                method = new MethodMetrics();
+                methods.put(callMetrics.methodName, method);
+            }
+            method.calls++;
+            if (failed) {
+                method.errors++;
+            }
+            for (CallMetrics.Phase phase : CallMetrics.Phase.values()) {
+                method.phaseNanos[phase.ordinal()] += callMetrics.phaseNanos(phase);
+            }
+            method.maxTotalNanos = Math.max(method.maxTotalNanos, callMetrics.phaseNanos(CallMetrics.Phase.TOTAL));
+            method.rows += callMetrics.rows();
+            method.contacts += callMetrics.contacts();
+            method.payloadBytes += callMetrics.payloadBytes();
+        }
+    }
+
+    JSObject toJSObject() {
+        JSObject jsMethods = new JSObject();
+        synchronized (methods) {
+            for (Map.Entry<String, MethodMetrics> entry : methods.entrySet()) {
+                jsMethods.put(entry.getKey(), entry.getValue().toJSObject());
+            }
+        }
+        JSObject result = new JSObject();
+        result.put("enabled", enabled);
+        result.put("methods", jsMethods);
+        return result;
+    }
+
+    void reset() {
+        synchronized (methods) {
+            methods.clear();
+        }
+    }
+}
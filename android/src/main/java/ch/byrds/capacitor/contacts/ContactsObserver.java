@@ -0,0 +1,88 @@
+package ch.byrds.capacitor.contacts;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the contacts provider while at least one listener is registered.
+ * The generation is bumped on every provider notification, listeners are
+ * called once per burst of notifications.
+ */
+class ContactsObserver {
+
+    private static final long DEBOUNCE_MS = 500;
+
+    interface Listener {
+        void onContactsChanged();
+    }
+
+    private final ContentResolver contentResolver;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new ArrayList<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Runnable notifyListeners = new Runnable() {
+        @Override
+        public void run() {
+            List<Listener> currentListeners;
+            synchronized (ContactsObserver.this) {
+                currentListeners = new ArrayList<>(listeners);
+            }
+            for (Listener listener : currentListeners) {
+                listener.onContactsChanged();
+            }
+        }
+    };
+
+    private final ContentObserver contentObserver = new ContentObserver(handler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            generation.incrementAndGet();
+            handler.removeCallbacks(notifyListeners);
+            handler.postDelayed(notifyListeners, DEBOUNCE_MS);
+        }
+    };
+
+    ContactsObserver(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Increases on every change of the provider, before the listeners are called.
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    synchronized void addListener(Listener listener) {
+        if (listeners.contains(listener)) {
+            return;
+        }
+        if (listeners.isEmpty()) {
+            contentResolver.registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, contentObserver);
+        }
+        listeners.add(listener);
+    }
+
+    synchronized void removeListener(Listener listener) {
+        if (listeners.remove(listener) && listeners.isEmpty()) {
+            contentResolver.unregisterContentObserver(contentObserver);
+            handler.removeCallbacks(notifyListeners);
+        }
+    }
+
+    synchronized void release() {
+        if (!listeners.isEmpty()) {
+            listeners.clear();
+            contentResolver.unregisterContentObserver(contentObserver);
+        }
+        handler.removeCallbacks(notifyListeners);
+    }
+}
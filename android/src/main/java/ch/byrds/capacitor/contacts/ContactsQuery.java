@@ -0,0 +1,264 @@
+package ch.byrds.capacitor.contacts;
+
+import static android.provider.ContactsContract.Data.MIMETYPE;
+
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Event;
+import android.provider.ContactsContract.CommonDataKinds.Organization;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.Photo;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.RawContacts;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.PluginCall;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Projection and selection of a query on the Data table.
+ * Only the columns and mimetypes of the requested fields are read,
+ * so unrequested rows (e.g. photo blobs) never leave the provider.
+ */
+class ContactsQuery {
+
+    static final String FIELDS = "fields";
+    static final String ACCOUNT_TYPE = "accountType";
+    static final String ACCOUNT_NAME = "accountName";
+    static final String VISIBLE_ONLY = "visibleOnly";
+    static final String HAS_PHONE_NUMBER = "hasPhoneNumber";
+
+    static final String FIELD_PHONE_NUMBERS = "phoneNumbers";
+    static final String FIELD_EMAILS = "emails";
+    static final String FIELD_BIRTHDAY = "birthday";
+    static final String FIELD_ORGANIZATION = "organization";
+    static final String FIELD_PHOTO = "photo";
+
+    /**
+     * Number of selection arguments per query, well below the SQLite limit of 999.
+     */
+    static final int MAX_SELECTION_ARGS = 500;
+
+    static final String[] ALL_FIELDS = new String[]{
+            FIELD_PHONE_NUMBERS,
+            FIELD_EMAILS,
+            FIELD_BIRTHDAY,
+            FIELD_ORGANIZATION,
+            FIELD_PHOTO
+    };
+
+    /**
+     * Account, visibility and phone number restrictions of a query, kept to
+     * apply them to the Contacts table as well.
+     */
+    static class Filter {
+
+        static final Filter NONE = new Filter(null, null, false, false);
+
+        final String accountType;
+        final String accountName;
+        final boolean visibleOnly;
+        final boolean hasPhoneNumber;
+
+        Filter(String accountType, String accountName, boolean visibleOnly, boolean hasPhoneNumber) {
+            this.accountType = accountType;
+            this.accountName = accountName;
+            this.visibleOnly = visibleOnly;
+            this.hasPhoneNumber = hasPhoneNumber;
+        }
+
+        static Filter fromCall(PluginCall call) {
+            return new Filter(
+                    call.getString(ACCOUNT_TYPE),
+                    call.getString(ACCOUNT_NAME),
+                    call.getBoolean(VISIBLE_ONLY, false),
+                    call.getBoolean(HAS_PHONE_NUMBER, false)
+            );
+        }
+
+        /**
+         * Whether the filter restricts accounts, which the Contacts table has no columns for.
+         */
+        boolean hasAccount() {
+            return accountType != null || accountName != null;
+        }
+
+        /**
+         * Selection of the visibility and phone number restrictions on the Contacts
+         * table, null if there are none.
+         */
+        String contactsSelection() {
+            List<String> selection = new ArrayList<>(2);
+            if (visibleOnly) {
+                selection.add(ContactsContract.Contacts.IN_VISIBLE_GROUP + "=1");
+            }
+            if (hasPhoneNumber) {
+                selection.add(ContactsContract.Contacts.HAS_PHONE_NUMBER + "=1");
+            }
+            return selection.isEmpty() ? null : String.join(" AND ", selection);
+        }
+    }
+
+    final Set<String> fields;
+    final String[] projection;
+    final String selection;
+    final String[] selectionArgs;
+    final Filter filter;
+
+    private ContactsQuery(Set<String> fields, String[] projection, String selection, String[] selectionArgs, Filter filter) {
+        this.fields = fields;
+        this.projection = projection;
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+        this.filter = filter;
+    }
+
+    /**
+     * Builds the query for the fields option of the call, all fields if not set,
+     * restricted by the filter options of the call.
+     */
+    static ContactsQuery fromCall(PluginCall call) {
+        return fromCall(call, false);
+    }
+
+    static ContactsQuery fromCall(PluginCall call, boolean includeNameRows) {
+        JSArray jsFields = call.getArray(FIELDS, null);
+        if (jsFields == null) {
+            return forFields(Arrays.asList(ALL_FIELDS), includeNameRows).withFilters(call);
+        }
+        List<String> fields = new ArrayList<>();
+        for (int i = 0; i < jsFields.length(); i++) {
+            fields.add(jsFields.optString(i));
+        }
+        return forFields(fields, includeNameRows).withFilters(call);
+    }
+
+    static ContactsQuery forFields(List<String> requestedFields) {
+        return forFields(requestedFields, false);
+    }
+
+    /**
+     * @param includeNameRows also select the name rows, so contacts without any
+     *                        of the requested data are part of the result
+     */
+    static ContactsQuery forFields(List<String> requestedFields, boolean includeNameRows) {
+        Set<String> fields = new LinkedHashSet<>();
+        List<String> projection = new ArrayList<>();
+        List<String> mimeTypes = new ArrayList<>();
+
+        projection.add(MIMETYPE);
+        projection.add(ContactsContract.Data.CONTACT_ID);
+        projection.add(ContactsContract.Contacts.DISPLAY_NAME);
+
+        boolean readsData = false;
+        for (String field : ALL_FIELDS) {
+            if (!requestedFields.contains(field)) {
+                continue;
+            }
+            fields.add(field);
+            switch (field) {
+                case FIELD_PHONE_NUMBERS:
+                    mimeTypes.add(Phone.CONTENT_ITEM_TYPE);
+                    readsData = true;
+                    break;
+                case FIELD_EMAILS:
+                    mimeTypes.add(Email.CONTENT_ITEM_TYPE);
+                    readsData = true;
+                    break;
+                case FIELD_BIRTHDAY:
+                    mimeTypes.add(Event.CONTENT_ITEM_TYPE);
+                    readsData = true;
+                    break;
+                case FIELD_ORGANIZATION:
+                    mimeTypes.add(Organization.CONTENT_ITEM_TYPE);
+                    projection.add(Organization.TITLE);
+                    readsData = true;
+                    break;
+                case FIELD_PHOTO:
+                    mimeTypes.add(Photo.CONTENT_ITEM_TYPE);
+                    projection.add(ContactsContract.Contacts.Photo.PHOTO);
+                    break;
+            }
+        }
+
+        if (mimeTypes.isEmpty() || includeNameRows) {
+            // one name row per raw contact, so contacts without data rows are read as well
+            mimeTypes.add(StructuredName.CONTENT_ITEM_TYPE);
+        }
+        if (readsData) {
+            projection.add(ContactsContract.CommonDataKinds.Contactables.DATA);
+            projection.add(ContactsContract.CommonDataKinds.Contactables.TYPE);
+            projection.add(ContactsContract.CommonDataKinds.Contactables.LABEL);
+        }
+
+        return new ContactsQuery(
+                fields,
+                projection.toArray(new String[0]),
+                inSelection(MIMETYPE, mimeTypes.size()),
+                mimeTypes.toArray(new String[0]),
+                Filter.NONE
+        );
+    }
+
+    /**
+     * Returns a "column in (?, ?, ...)" selection with the given number of arguments.
+     */
+    static String inSelection(String column, int count) {
+        StringBuilder selection = new StringBuilder(column).append(" in (");
+        for (int i = 0; i < count; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        return selection.append(")").toString();
+    }
+
+    boolean hasField(String field) {
+        return fields.contains(field);
+    }
+
+    /**
+     * Returns a copy of this query reading the given additional columns.
+     */
+    ContactsQuery withColumns(String... columns) {
+        String[] projection = Arrays.copyOf(this.projection, this.projection.length + columns.length);
+        System.arraycopy(columns, 0, projection, this.projection.length, columns.length);
+        return new ContactsQuery(fields, projection, selection, selectionArgs, filter);
+    }
+
+    /**
+     * Returns a copy of this query restricted to the account, visibility and phone
+     * number options of the call. The Data view exposes these columns of the raw
+     * contact and contact, so the provider filters the rows on its indexes.
+     */
+    ContactsQuery withFilters(PluginCall call) {
+        return withFilter(Filter.fromCall(call));
+    }
+
+    ContactsQuery withFilter(Filter filter) {
+        ContactsQuery query = new ContactsQuery(fields, projection, selection, selectionArgs, filter);
+        if (filter.accountType != null) {
+            query = query.withSelection(RawContacts.ACCOUNT_TYPE + "=?", filter.accountType);
+        }
+        if (filter.accountName != null) {
+            query = query.withSelection(RawContacts.ACCOUNT_NAME + "=?", filter.accountName);
+        }
+        String contactsSelection = filter.contactsSelection();
+        if (contactsSelection != null) {
+            query = query.withSelection(contactsSelection);
+        }
+        return query;
+    }
+
+    /**
+     * Returns a copy of this query further restricted by the given selection.
+     */
+    ContactsQuery withSelection(String selection, String... selectionArgs) {
+        String[] args = Arrays.copyOf(this.selectionArgs, this.selectionArgs.length + selectionArgs.length);
+        System.arraycopy(selectionArgs, 0, args, this.selectionArgs.length, selectionArgs.length);
+        return new ContactsQuery(fields, projection, this.selection + " AND (" + selection + ")", args, filter);
+    }
+}
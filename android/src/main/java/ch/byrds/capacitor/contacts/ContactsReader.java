@@ -0,0 +1,773 @@
+package ch.byrds.capacitor.contacts;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.provider.ContactsContract;
+import android.util.LongSparseArray;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reads contacts from the Data table into the getContacts result, as contact
+ * objects or as {@link ContactColumns}, in the order of a {@link ContactsWindow}.
+ * Depends on a ContentResolver only, so it runs against any provider.
+ *
+ * Reads sorted by contact id can be split into ranges of contact ids, read,
+ * decoded and serialized in parallel, see {@link #readPartitioned}.
+ */
+class ContactsReader {
+
+    /**
+     * Address books with fewer contacts are read serially. In ContactsBenchmark
+     * reads split into 2 or 4 ranges took at most as long as the serial read
+     * from 2000 contacts on, and clearly less from 5000 contacts on, while at
+     * 1000 contacts the difference was within the variation between runs.
+     */
+    static final int PARALLEL_MIN_CONTACTS = 2000;
+
+    /**
+     * Interval in which a read waiting for its partitions checks for cancellation.
+     */
+    private static final long CANCEL_POLL_MS = 50;
+
+    interface ChunkListener {
+        /**
+         * @param chunk the contacts of the chunk, and their columns if columnar
+         */
+        void onChunk(JSObject chunk, int chunkIndex, boolean done);
+    }
+
+    private final ContentResolver contentResolver;
+    private final CancellationSignal signal;
+    private final CallMetrics metrics;
+    private final ExecutorService partitionExecutor;
+    private final int parallelism;
+    private final int parallelMinContacts;
+
+    ContactsReader(ContentResolver contentResolver, CancellationSignal signal, CallMetrics metrics) {
+        this(contentResolver, signal, metrics, null, 1);
+    }
+
+    /**
+     * @param partitionExecutor runs the partitions of parallel reads
+     * @param parallelism       number of partitions of reads sorted by contact id, 1 to read serially
+     */
+    ContactsReader(ContentResolver contentResolver, CancellationSignal signal, CallMetrics metrics,
+                   ExecutorService partitionExecutor, int parallelism) {
+        this(contentResolver, signal, metrics, partitionExecutor, parallelism, PARALLEL_MIN_CONTACTS);
+    }
+
+    /**
+     * @param parallelMinContacts fewest contacts read in parallel, 0 to measure parallel reads of any size
+     */
+    ContactsReader(ContentResolver contentResolver, CancellationSignal signal, CallMetrics metrics,
+                   ExecutorService partitionExecutor, int parallelism, int parallelMinContacts) {
+        this.contentResolver = contentResolver;
+        this.signal = signal;
+        this.metrics = metrics;
+        this.partitionExecutor = partitionExecutor;
+        this.parallelism = partitionExecutor != null ? Math.max(parallelism, 1) : 1;
+        this.parallelMinContacts = parallelMinContacts;
+    }
+
+    /**
+     * Collects the contacts of a read into the result, or into chunks if pageSize is set.
+     */
+    private class Output {
+
+        private final ContactsQuery query;
+        private final int pageSize;
+        private final boolean columnar;
+        private final ChunkListener chunkListener;
+
+        private JSArray jsContacts = new JSArray();
+        private ContactColumns columns;
+        private int chunkSize;
+        private int chunkIndex;
+        int contactCount;
+
+        Output(ContactsQuery query, int pageSize, boolean columnar, ChunkListener chunkListener) {
+            this.query = query;
+            this.pageSize = pageSize;
+            this.columnar = columnar;
+            this.chunkListener = chunkListener;
+            this.columns = columnar ? new ContactColumns(query) : null;
+        }
+
+        void add(ContactRecord contact) {
+            long start = metrics.start();
+            if (columns != null) {
+                columns.add(contact);
+            } else {
+                jsContacts.put(contact.toJSObject());
+            }
+            metrics.stop(CallMetrics.Phase.SERIALIZE, start);
+            added();
+        }
+
+        /**
+         * Adds a contact already serialized by a partition, not columnar only.
+         */
+        void addSerialized(JSObject jsContact) {
+            jsContacts.put(jsContact);
+            added();
+        }
+
+        private void added() {
+            contactCount++;
+            chunkSize++;
+
+            if (pageSize > 0 && chunkSize >= pageSize) {
+                chunkListener.onChunk(contactsOf(jsContacts, columns), chunkIndex++, false);
+                jsContacts = new JSArray();
+                columns = columnar ? new ContactColumns(query) : null;
+                chunkSize = 0;
+            }
+        }
+
+        JSObject finish() {
+            metrics.addContacts(contactCount);
+            JSObject result;
+            if (pageSize > 0) {
+                // contacts were delivered through chunk events
+                chunkListener.onChunk(contactsOf(jsContacts, columns), chunkIndex, true);
+                result = new JSObject();
+                result.put("contacts", new JSArray());
+            } else {
+                result = contactsOf(jsContacts, columns);
+            }
+            result.put("count", contactCount);
+            return result;
+        }
+    }
+
+    /**
+     * @param window        sort order, offset and limit of the contacts
+     * @param pageSize      contacts per chunk, 0 to return all contacts in the result
+     * @param columnar      return the contacts as columns instead of objects
+     * @param chunkListener receives the chunks if pageSize is set
+     */
+    JSObject readContacts(ContactsQuery query, ContactsWindow window, int pageSize, boolean columnar, ChunkListener chunkListener) {
+        Output output = new Output(query, pageSize, columnar, chunkListener);
+        if (window.isWindowed()) {
+            readWindow(query, window, output);
+        } else if (parallelism > 1 && window.sortBy == null && window.limit <= 0) {
+            readPartitioned(query, output);
+        } else {
+            readSorted(query, window, output);
+        }
+        return output.finish();
+    }
+
+    /**
+     * Reads the contacts in one pass over the data rows sorted by the window.
+     */
+    private void readSorted(ContactsQuery query, ContactsWindow window, Output output) {
+        // the sort order keeps all rows of a contact together,
+        // so a contact is complete as soon as the next id shows up
+        long start = metrics.start();
+        Cursor contactsCursor = contentResolver.query(
+                ContactsContract.Data.CONTENT_URI,
+                query.projection,
+                query.selection,
+                query.selectionArgs,
+                window.sortOrder(ContactsContract.Data.CONTACT_ID),
+                signal
+        );
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+        if (contactsCursor == null) {
+            return;
+        }
+        try {
+            ContactRowDecoder decoder = new ContactRowDecoder(contactsCursor);
+            while (window.limit <= 0 || output.contactCount < window.limit) {
+                start = metrics.start();
+                ContactRecord contact = decoder.nextContact();
+                metrics.stop(CallMetrics.Phase.ITERATE, start);
+                if (contact == null) {
+                    break;
+                }
+                signal.throwIfCanceled();
+                output.add(contact);
+            }
+            metrics.addRows(decoder.rowCount());
+        } finally {
+            contactsCursor.close();
+        }
+    }
+
+    /**
+     * Reads ranges of contact ids in parallel, each queried, decoded and, unless
+     * columnar, serialized on a worker with partial results of its own. The
+     * ranges are ascending and hold all rows of their contacts, so appending
+     * them in order gives the same contacts in the same order as a serial read.
+     */
+    private void readPartitioned(ContactsQuery query, Output output) {
+        long[] bounds = partitionBounds();
+        if (bounds == null) {
+            readSorted(query, ContactsWindow.ALL, output);
+            return;
+        }
+
+        List<Partition> partitions = new ArrayList<>(bounds.length + 1);
+        List<Future<Partition>> futures = new ArrayList<>(bounds.length + 1);
+        try {
+            for (int i = 0; i <= bounds.length; i++) {
+                ContactsQuery partitionQuery;
+                if (i == 0) {
+                    partitionQuery = query.withSelection(ContactsContract.Data.CONTACT_ID + "<?", String.valueOf(bounds[0]));
+                } else if (i == bounds.length) {
+                    partitionQuery = query.withSelection(ContactsContract.Data.CONTACT_ID + ">=?", String.valueOf(bounds[i - 1]));
+                } else {
+                    partitionQuery = query.withSelection(
+                            ContactsContract.Data.CONTACT_ID + ">=? AND " + ContactsContract.Data.CONTACT_ID + "<?",
+                            String.valueOf(bounds[i - 1]),
+                            String.valueOf(bounds[i])
+                    );
+                }
+                Partition partition = new Partition(partitionQuery, !output.columnar);
+                partitions.add(partition);
+                futures.add(partitionExecutor.submit(partition));
+            }
+
+            for (int i = 0; i < partitions.size(); i++) {
+                Partition partition = await(futures.get(i));
+                metrics.add(partition.metrics);
+                if (partition.serialize) {
+                    for (JSObject jsContact : partition.jsContacts) {
+                        output.addSerialized(jsContact);
+                    }
+                } else {
+                    for (ContactRecord contact : partition.contacts) {
+                        output.add(contact);
+                    }
+                }
+                // the merged partition is no longer needed
+                partitions.set(i, null);
+            }
+        } finally {
+            // stops the partitions still running if the read failed or was cancelled
+            for (Partition partition : partitions) {
+                if (partition != null) {
+                    partition.signal.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Contact ids splitting the contacts into ranges of equal size, the first
+     * id of every range but the first. Null if there are too few contacts.
+     */
+    private long[] partitionBounds() {
+        long start = metrics.start();
+        Cursor cursor = contentResolver.query(
+                ContactsContract.Contacts.CONTENT_URI,
+                new String[]{ContactsContract.Contacts._ID},
+                null,
+                null,
+                ContactsContract.Contacts._ID + " ASC",
+                signal
+        );
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            int count = cursor.getCount();
+            if (count < parallelMinContacts || count < parallelism) {
+                return null;
+            }
+            long[] bounds = new long[parallelism - 1];
+            for (int i = 0; i < bounds.length; i++) {
+                cursor.moveToPosition((int) ((long) count * (i + 1) / parallelism));
+                bounds[i] = cursor.getLong(0);
+            }
+            return bounds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Waits for a partition, cancelling the read if the call is cancelled meanwhile.
+     */
+    private Partition await(Future<Partition> future) {
+        while (true) {
+            signal.throwIfCanceled();
+            try {
+                return future.get(CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // check the signal again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new OperationCanceledException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * A range of contact ids read on a worker.
+     *
+     * Every partition has its own cancellation signal, a signal only passes the
+     * cancellation on to one running query. Its metrics are added to the call
+     * once the partition is merged.
+     */
+    private class Partition implements Callable<Partition> {
+
+        final ContactsQuery query;
+        final boolean serialize;
+        final CancellationSignal signal = new CancellationSignal();
+        final CallMetrics metrics = ContactsReader.this.metrics.fork();
+        final List<ContactRecord> contacts = new ArrayList<>();
+        final List<JSObject> jsContacts = new ArrayList<>();
+
+        Partition(ContactsQuery query, boolean serialize) {
+            this.query = query;
+            this.serialize = serialize;
+        }
+
+        @Override
+        public Partition call() {
+            long start = metrics.start();
+            Cursor contactsCursor = contentResolver.query(
+                    ContactsContract.Data.CONTENT_URI,
+                    query.projection,
+                    query.selection,
+                    query.selectionArgs,
+                    ContactsContract.Data.CONTACT_ID + " ASC",
+                    signal
+            );
+            metrics.stop(CallMetrics.Phase.QUERY, start);
+            if (contactsCursor == null) {
+                return this;
+            }
+            try {
+                ContactRowDecoder decoder = new ContactRowDecoder(contactsCursor);
+                while (true) {
+                    start = metrics.start();
+                    ContactRecord contact = decoder.nextContact();
+                    metrics.stop(CallMetrics.Phase.ITERATE, start);
+                    if (contact == null) {
+                        break;
+                    }
+                    signal.throwIfCanceled();
+
+                    if (serialize) {
+                        start = metrics.start();
+                        jsContacts.add(contact.toJSObject());
+                        metrics.stop(CallMetrics.Phase.SERIALIZE, start);
+                    } else {
+                        contacts.add(contact);
+                    }
+                }
+                metrics.addRows(decoder.rowCount());
+            } finally {
+                contactsCursor.close();
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Reads the contact ids of the window first, then the data rows of these
+     * contacts only. Contacts without data rows matching the query are returned
+     * with their id and display name, so windows line up with the section index.
+     */
+    private void readWindow(ContactsQuery query, ContactsWindow window, Output output) {
+        List<ContactRecord> windowContacts = query.filter.hasAccount()
+                ? readAccountWindow(query.filter, window)
+                : readContactsWindow(query.filter, window);
+        if (windowContacts.isEmpty()) {
+            return;
+        }
+
+        LongSparseArray<ContactRecord> contacts = new LongSparseArray<>(windowContacts.size());
+        for (int offset = 0; offset < windowContacts.size(); offset += ContactsQuery.MAX_SELECTION_ARGS) {
+            List<ContactRecord> chunk = windowContacts.subList(offset, Math.min(offset + ContactsQuery.MAX_SELECTION_ARGS, windowContacts.size()));
+            String[] contactIds = new String[chunk.size()];
+            for (int i = 0; i < contactIds.length; i++) {
+                contactIds[i] = String.valueOf(chunk.get(i).contactId);
+            }
+            ContactsQuery chunkQuery = query.withSelection(
+                    ContactsQuery.inSelection(ContactsContract.Data.CONTACT_ID, contactIds.length),
+                    contactIds
+            );
+
+            long start = metrics.start();
+            Cursor contactsCursor = contentResolver.query(
+                    ContactsContract.Data.CONTENT_URI,
+                    chunkQuery.projection,
+                    chunkQuery.selection,
+                    chunkQuery.selectionArgs,
+                    ContactsContract.Data.CONTACT_ID + " ASC",
+                    signal
+            );
+            metrics.stop(CallMetrics.Phase.QUERY, start);
+            if (contactsCursor == null) {
+                continue;
+            }
+            try {
+                ContactRowDecoder decoder = new ContactRowDecoder(contactsCursor);
+                while (true) {
+                    start = metrics.start();
+                    ContactRecord contact = decoder.nextContact();
+                    metrics.stop(CallMetrics.Phase.ITERATE, start);
+                    if (contact == null) {
+                        break;
+                    }
+                    signal.throwIfCanceled();
+                    contacts.put(contact.contactId, contact);
+                }
+                metrics.addRows(decoder.rowCount());
+            } finally {
+                contactsCursor.close();
+            }
+        }
+
+        for (ContactRecord windowContact : windowContacts) {
+            output.add(contacts.get(windowContact.contactId, windowContact));
+        }
+    }
+
+    /**
+     * The contacts of the window, read from the Contacts table with one row per
+     * contact. The provider sorts and limits the rows, the offset is skipped on
+     * the cursor of ids.
+     */
+    private List<ContactRecord> readContactsWindow(ContactsQuery.Filter filter, ContactsWindow window) {
+        Uri uri = ContactsContract.Contacts.CONTENT_URI;
+        if (window.limit > 0) {
+            uri = uri.buildUpon()
+                    .appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY, String.valueOf(window.offset + window.limit))
+                    .build();
+        }
+        long start = metrics.start();
+        Cursor cursor = contentResolver.query(
+                uri,
+                new String[]{ContactsContract.Contacts._ID, ContactsContract.Contacts.DISPLAY_NAME},
+                filter.contactsSelection(),
+                null,
+                window.sortOrder(ContactsContract.Contacts._ID),
+                signal
+        );
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+
+        List<ContactRecord> contacts = new ArrayList<>();
+        if (cursor == null) {
+            return contacts;
+        }
+        start = metrics.start();
+        try {
+            if (cursor.moveToPosition(window.offset)) {
+                do {
+                    contacts.add(new ContactRecord(cursor.getLong(0), cursor.getString(1)));
+                } while ((window.limit <= 0 || contacts.size() < window.limit) && cursor.moveToNext());
+            }
+            metrics.addRows(contacts.size());
+        } finally {
+            cursor.close();
+            metrics.stop(CallMetrics.Phase.ITERATE, start);
+        }
+        return contacts;
+    }
+
+    /**
+     * The contacts of the window with raw contacts of the filtered account. The
+     * Contacts table has no account columns, so the ids are read from the name
+     * rows of the account, sorted by the provider.
+     */
+    private List<ContactRecord> readAccountWindow(ContactsQuery.Filter filter, ContactsWindow window) {
+        ContactsQuery nameQuery = ContactsQuery.forFields(Collections.<String>emptyList()).withFilter(filter);
+        long start = metrics.start();
+        Cursor cursor = contentResolver.query(
+                ContactsContract.Data.CONTENT_URI,
+                new String[]{ContactsContract.Data.CONTACT_ID, ContactsContract.Contacts.DISPLAY_NAME},
+                nameQuery.selection,
+                nameQuery.selectionArgs,
+                window.sortOrder(ContactsContract.Data.CONTACT_ID),
+                signal
+        );
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+
+        List<ContactRecord> contacts = new ArrayList<>();
+        if (cursor == null) {
+            return contacts;
+        }
+        start = metrics.start();
+        try {
+            // one name row per raw contact, the raw contacts of a contact are adjacent
+            long previousContactId = -1;
+            int skipped = 0;
+            int rows = 0;
+            while ((window.limit <= 0 || contacts.size() < window.limit) && cursor.moveToNext()) {
+                rows++;
+                long contactId = cursor.getLong(0);
+                if (contactId == previousContactId) {
+                    continue;
+                }
+                previousContactId = contactId;
+                if (skipped < window.offset) {
+                    skipped++;
+                    continue;
+                }
+                contacts.add(new ContactRecord(contactId, cursor.getString(1)));
+            }
+            metrics.addRows(rows);
+        } finally {
+            cursor.close();
+            metrics.stop(CallMetrics.Phase.ITERATE, start);
+        }
+        return contacts;
+    }
+
+    /**
+     * Reads the alphabetical sections of the contacts sorted by display name,
+     * counted by the provider. The offset of a section is the offset of its
+     * first contact in a getContacts read with the same sort order and filter.
+     */
+    JSObject readSectionIndex(ContactsQuery.Filter filter, ContactsWindow window) {
+        if (!ContactsWindow.SORT_DISPLAY_NAME.equals(window.sortBy)
+                && !ContactsWindow.SORT_DISPLAY_NAME_ALTERNATIVE.equals(window.sortBy)) {
+            throw new IllegalArgumentException("The section index requires sortBy displayName or displayNameAlternative");
+        }
+        Uri uri = ContactsContract.Contacts.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ContactsContract.Contacts.EXTRA_ADDRESS_BOOK_INDEX, "true")
+                .build();
+
+        JSArray jsSections = new JSArray();
+        int count = 0;
+        long start = metrics.start();
+        // the rows are never read, the index comes with the extras of the cursor
+        Cursor cursor = contentResolver.query(
+                uri,
+                new String[]{ContactsContract.Contacts._ID},
+                filter.contactsSelection(),
+                null,
+                window.sortOrder(ContactsContract.Contacts._ID),
+                signal
+        );
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+        if (cursor != null) {
+            try {
+                Bundle extras = cursor.getExtras();
+                String[] titles = extras != null ? extras.getStringArray(ContactsContract.Contacts.EXTRA_ADDRESS_BOOK_INDEX_TITLES) : null;
+                int[] counts = extras != null ? extras.getIntArray(ContactsContract.Contacts.EXTRA_ADDRESS_BOOK_INDEX_COUNTS) : null;
+                if (titles != null && counts != null) {
+                    start = metrics.start();
+                    for (int i = 0; i < titles.length && i < counts.length; i++) {
+                        JSObject jsSection = new JSObject();
+                        jsSection.put("title", titles[i]);
+                        jsSection.put("count", counts[i]);
+                        jsSection.put("offset", count);
+                        jsSections.put(jsSection);
+                        count += counts[i];
+                    }
+                    metrics.stop(CallMetrics.Phase.SERIALIZE, start);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        metrics.addContacts(count);
+
+        JSObject result = new JSObject();
+        result.put("sections", jsSections);
+        result.put("count", count);
+        return result;
+    }
+
+    /**
+     * Reads the contacts changed and deleted after since, a timestamp in milliseconds.
+     * The query should include the name rows, so contacts without any of the
+     * requested data left are returned as changed.
+     */
+    JSObject readContactChanges(ContactsQuery changesQuery, long since) {
+        long watermark = since;
+
+        // changed contacts, the timestamp filter is evaluated by the provider
+        ContactsQuery query = changesQuery
+                .withColumns(ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP)
+                .withSelection(ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?", String.valueOf(since));
+
+        JSArray jsContacts = new JSArray();
+        long start = metrics.start();
+        Cursor contactsCursor = contentResolver.query(
+                ContactsContract.Data.CONTENT_URI,
+                query.projection,
+                query.selection,
+                query.selectionArgs,
+                ContactsContract.Data.CONTACT_ID + " ASC",
+                signal
+        );
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+        if (contactsCursor != null) {
+            try {
+                ContactRowDecoder decoder = new ContactRowDecoder(contactsCursor);
+
+                while (true) {
+                    start = metrics.start();
+                    ContactRecord contact = decoder.nextContact();
+                    metrics.stop(CallMetrics.Phase.ITERATE, start);
+                    if (contact == null) {
+                        break;
+                    }
+                    signal.throwIfCanceled();
+
+                    start = metrics.start();
+                    jsContacts.put(contact.toJSObject());
+                    metrics.stop(CallMetrics.Phase.SERIALIZE, start);
+                    watermark = Math.max(watermark, contact.lastUpdated);
+                }
+                metrics.addRows(decoder.rowCount());
+                metrics.addContacts(jsContacts.length());
+            } finally {
+                contactsCursor.close();
+            }
+        }
+
+        // tombstones of contacts deleted since the last sync
+        JSArray jsDeletedContactIds = new JSArray();
+        start = metrics.start();
+        Cursor deletedCursor = contentResolver.query(
+                ContactsContract.DeletedContacts.CONTENT_URI,
+                new String[]{ContactsContract.DeletedContacts.CONTACT_ID, ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP},
+                ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?",
+                new String[]{String.valueOf(since)},
+                null,
+                signal
+        );
+        metrics.stop(CallMetrics.Phase.QUERY, start);
+        if (deletedCursor != null) {
+            start = metrics.start();
+            try {
+                while (deletedCursor.moveToNext()) {
+                    jsDeletedContactIds.put(deletedCursor.getString(0));
+                    watermark = Math.max(watermark, deletedCursor.getLong(1));
+                }
+                metrics.addRows(deletedCursor.getCount());
+            } finally {
+                deletedCursor.close();
+                metrics.stop(CallMetrics.Phase.ITERATE, start);
+            }
+        }
+
+        JSObject result = new JSObject();
+        result.put("contacts", jsContacts);
+        result.put("deletedContactIds", jsDeletedContactIds);
+        result.put("watermark", watermark);
+        return result;
+    }
+
+    /**
+     * Reads the given contacts, sorted by contact id. The query should include
+     * the name rows, so contacts without any of the requested data are found.
+     * Ids of contacts that do not exist (anymore) are returned as missingContactIds.
+     */
+    JSObject readContactsByIds(ContactsQuery query, List<String> contactIds, boolean columnar) {
+        // sorted chunks keep the result sorted by contact id across queries
+        TreeSet<Long> sortedIds = new TreeSet<>();
+        for (String contactId : contactIds) {
+            sortedIds.add(Long.parseLong(contactId));
+        }
+        List<String> ids = new ArrayList<>(sortedIds.size());
+        for (long contactId : sortedIds) {
+            ids.add(String.valueOf(contactId));
+        }
+
+        JSArray jsContacts = new JSArray();
+        ContactColumns columns = columnar ? new ContactColumns(query) : null;
+        TreeSet<Long> missingIds = new TreeSet<>(sortedIds);
+        int contactCount = 0;
+
+        for (int offset = 0; offset < ids.size(); offset += ContactsQuery.MAX_SELECTION_ARGS) {
+            List<String> chunk = ids.subList(offset, Math.min(offset + ContactsQuery.MAX_SELECTION_ARGS, ids.size()));
+            ContactsQuery chunkQuery = query.withSelection(
+                    ContactsQuery.inSelection(ContactsContract.Data.CONTACT_ID, chunk.size()),
+                    chunk.toArray(new String[0])
+            );
+
+            long start = metrics.start();
+            Cursor contactsCursor = contentResolver.query(
+                    ContactsContract.Data.CONTENT_URI,
+                    chunkQuery.projection,
+                    chunkQuery.selection,
+                    chunkQuery.selectionArgs,
+                    ContactsContract.Data.CONTACT_ID + " ASC",
+                    signal
+            );
+            metrics.stop(CallMetrics.Phase.QUERY, start);
+            if (contactsCursor == null) {
+                continue;
+            }
+            try {
+                ContactRowDecoder decoder = new ContactRowDecoder(contactsCursor);
+                while (true) {
+                    start = metrics.start();
+                    ContactRecord contact = decoder.nextContact();
+                    metrics.stop(CallMetrics.Phase.ITERATE, start);
+                    if (contact == null) {
+                        break;
+                    }
+                    signal.throwIfCanceled();
+
+                    start = metrics.start();
+                    if (columns != null) {
+                        columns.add(contact);
+                    } else {
+                        jsContacts.put(contact.toJSObject());
+                    }
+                    metrics.stop(CallMetrics.Phase.SERIALIZE, start);
+                    missingIds.remove(contact.contactId);
+                    contactCount++;
+                }
+                metrics.addRows(decoder.rowCount());
+            } finally {
+                contactsCursor.close();
+            }
+        }
+        metrics.addContacts(contactCount);
+
+        JSArray jsMissingIds = new JSArray();
+        for (long contactId : missingIds) {
+            jsMissingIds.put(String.valueOf(contactId));
+        }
+        JSObject result = contactsOf(jsContacts, columns);
+        result.put("count", contactCount);
+        result.put("missingContactIds", jsMissingIds);
+        return result;
+    }
+
+    /**
+     * The contacts of a result or chunk, with an empty contacts array if columnar.
+     */
+    private static JSObject contactsOf(JSArray jsContacts, ContactColumns columns) {
+        JSObject contacts = new JSObject();
+        contacts.put("contacts", jsContacts);
+        if (columns != null) {
+            contacts.put("columns", columns.toJSObject());
+        }
+        return contacts;
+    }
+}
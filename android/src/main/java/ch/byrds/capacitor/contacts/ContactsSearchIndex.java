@@ -0,0 +1,426 @@
+package ch.byrds.capacitor.contacts;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory search index over display names, email addresses and phone numbers.
+ * Text is matched by token prefix, phone numbers by digit prefix and by digit
+ * suffix, so numbers match with or without country code. The index is updated
+ * from the changes since its watermark instead of being rebuilt.
+ */
+class ContactsSearchIndex {
+
+    /**
+     * Shortest digit sequence matched as phone number suffix.
+     */
+    private static final int MIN_SUFFIX_DIGITS = 6;
+    private static final int MIN_QUERY_DIGITS = 3;
+
+    private static final int SCORE_NAME_PREFIX = 3;
+    private static final int SCORE_NAME_TOKEN = 2;
+    private static final int SCORE_PHONE = 2;
+    private static final int SCORE_OTHER = 1;
+
+    private static final List<String> FIELDS = Arrays.asList(ContactsQuery.FIELD_PHONE_NUMBERS, ContactsQuery.FIELD_EMAILS);
+
+    private static class Entry {
+
+        final ContactRecord contact;
+        final String normalizedName;
+        final String[] nameTokens;
+        final Set<String> textKeys = new HashSet<>();
+        final Set<String> digitKeys = new HashSet<>();
+        final Set<String> suffixKeys = new HashSet<>();
+
+        Entry(ContactRecord contact) {
+            this.contact = contact;
+            this.normalizedName = normalize(contact.displayName);
+            this.nameTokens = tokenize(normalizedName);
+        }
+    }
+
+    private static class Hit {
+
+        final Entry entry;
+        final int score;
+
+        Hit(Entry entry, int score) {
+            this.entry = entry;
+            this.score = score;
+        }
+    }
+
+    private static final Comparator<Hit> BEST_HIT_FIRST = new Comparator<Hit>() {
+        @Override
+        public int compare(Hit a, Hit b) {
+            if (a.score != b.score) {
+                return b.score - a.score;
+            }
+            return a.entry.normalizedName.compareTo(b.entry.normalizedName);
+        }
+    };
+
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final TreeMap<String, long[]> textIndex = new TreeMap<>();
+    private final TreeMap<String, long[]> digitIndex = new TreeMap<>();
+    private final TreeMap<String, long[]> suffixIndex = new TreeMap<>();
+
+    private long watermark;
+    private long generation = -1;
+
+    /**
+     * Observer generation the index was last updated at, -1 before the first update.
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Applies the contacts changed and deleted since the last update,
+     * on the first call all contacts are read.
+     */
+    synchronized void update(ContentResolver contentResolver, long generation, CancellationSignal signal) {
+        long since = watermark;
+
+        ContactsQuery query = ContactsQuery.forFields(FIELDS, true)
+                .withColumns(ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP);
+        if (since > 0) {
+            query = query.withSelection(ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?", String.valueOf(since));
+        }
+        Cursor contactsCursor = contentResolver.query(
+                ContactsContract.Data.CONTENT_URI,
+                query.projection,
+                query.selection,
+                query.selectionArgs,
+                ContactsContract.Data.CONTACT_ID + " ASC",
+                signal
+        );
+        if (contactsCursor != null) {
+            try {
+                ContactRowDecoder decoder = new ContactRowDecoder(contactsCursor);
+                ContactRecord contact;
+                while ((contact = decoder.nextContact()) != null) {
+                    remove(contact.contactId);
+                    add(contact);
+                    watermark = Math.max(watermark, contact.lastUpdated);
+                }
+            } finally {
+                contactsCursor.close();
+            }
+        }
+
+        if (since > 0) {
+            Cursor deletedCursor = contentResolver.query(
+                    ContactsContract.DeletedContacts.CONTENT_URI,
+                    new String[]{ContactsContract.DeletedContacts.CONTACT_ID, ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP},
+                    ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?",
+                    new String[]{String.valueOf(since)},
+                    null,
+                    signal
+            );
+            if (deletedCursor != null) {
+                try {
+                    while (deletedCursor.moveToNext()) {
+                        remove(deletedCursor.getLong(0));
+                        watermark = Math.max(watermark, deletedCursor.getLong(1));
+                    }
+                } finally {
+                    deletedCursor.close();
+                }
+            }
+        }
+
+        this.generation = generation;
+    }
+
+    /**
+     * Returns the best matching contacts, at most limit.
+     */
+    synchronized List<ContactRecord> search(String query, int limit) {
+        String normalizedQuery = normalize(query).trim();
+        if (normalizedQuery.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        Map<Long, Integer> scores = new HashMap<>();
+
+        String digits = digitsOf(normalizedQuery);
+        if (digits.length() >= MIN_QUERY_DIGITS) {
+            for (long contactId : phoneMatches(digits)) {
+                scores.put(contactId, SCORE_PHONE);
+            }
+        }
+
+        String[] queryTokens = tokenize(normalizedQuery);
+        if (queryTokens.length > 0) {
+            for (long contactId : textMatches(queryTokens)) {
+                Entry entry = entries.get(contactId);
+                int score = textScore(entry, normalizedQuery, queryTokens);
+                Integer phoneScore = scores.get(contactId);
+                scores.put(contactId, phoneScore != null ? Math.max(score, phoneScore) : score);
+            }
+        }
+
+        // keep the best limit hits, worst hit at the head of the queue
+        PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, Collections.reverseOrder(BEST_HIT_FIRST));
+        for (Map.Entry<Long, Integer> score : scores.entrySet()) {
+            best.add(new Hit(entries.get(score.getKey()), score.getValue()));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        List<Hit> hits = new ArrayList<>(best);
+        Collections.sort(hits, BEST_HIT_FIRST);
+
+        List<ContactRecord> contacts = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            contacts.add(hit.entry.contact);
+        }
+        return contacts;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        textIndex.clear();
+        digitIndex.clear();
+        suffixIndex.clear();
+        watermark = 0;
+        generation = -1;
+    }
+
+    private Set<Long> textMatches(String[] queryTokens) {
+        // every query token must be the prefix of a token of the contact
+        Set<Long> matches = null;
+        for (String queryToken : queryTokens) {
+            Set<Long> tokenMatches = prefixMatches(textIndex, queryToken);
+            if (matches == null) {
+                matches = tokenMatches;
+            } else {
+                matches.retainAll(tokenMatches);
+            }
+            if (matches.isEmpty()) {
+                break;
+            }
+        }
+        return matches;
+    }
+
+    private Set<Long> phoneMatches(String digits) {
+        Set<Long> matches = prefixMatches(digitIndex, digits);
+
+        String stripped = stripLeadingZeros(digits);
+        if (stripped.length() >= MIN_QUERY_DIGITS) {
+            // national numbers typed with trunk prefix
+            matches.addAll(prefixMatches(digitIndex, stripped));
+            // numbers ending with the query, e.g. the query has no country code
+            matches.addAll(prefixMatches(suffixIndex, reverse(stripped)));
+        }
+
+        // numbers the query ends with, e.g. the stored number has no country code
+        for (int length = MIN_SUFFIX_DIGITS; length < stripped.length(); length++) {
+            String suffix = stripped.substring(stripped.length() - length);
+            long[] contactIds = suffixIndex.get(reverse(suffix));
+            if (contactIds != null) {
+                for (long contactId : contactIds) {
+                    matches.add(contactId);
+                }
+            }
+        }
+        return matches;
+    }
+
+    private int textScore(Entry entry, String normalizedQuery, String[] queryTokens) {
+        if (entry.normalizedName.startsWith(normalizedQuery)) {
+            return SCORE_NAME_PREFIX;
+        }
+        for (String queryToken : queryTokens) {
+            boolean found = false;
+            for (String nameToken : entry.nameTokens) {
+                if (nameToken.startsWith(queryToken)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return SCORE_OTHER;
+            }
+        }
+        return SCORE_NAME_TOKEN;
+    }
+
+    private void add(ContactRecord contact) {
+        Entry entry = new Entry(contact);
+        Collections.addAll(entry.textKeys, entry.nameTokens);
+        for (ContactRecord.LabeledValue email : contact.emails) {
+            String address = normalize(email.value);
+            if (!address.isEmpty()) {
+                entry.textKeys.add(address);
+                Collections.addAll(entry.textKeys, tokenize(address));
+            }
+        }
+        for (ContactRecord.LabeledValue phoneNumber : contact.phoneNumbers) {
+            String digits = digitsOf(phoneNumber.value);
+            if (digits.isEmpty()) {
+                continue;
+            }
+            String stripped = stripLeadingZeros(digits);
+            entry.digitKeys.add(digits);
+            entry.digitKeys.add(stripped);
+            if (phoneNumber.value.trim().startsWith("+") || digits.startsWith("00")) {
+                // the country code has one to three digits, so the number is also
+                // indexed as typed without it
+                for (int length = 1; length <= 3 && length < stripped.length(); length++) {
+                    entry.digitKeys.add(stripLeadingZeros(stripped.substring(length)));
+                }
+            }
+            entry.suffixKeys.add(reverse(stripped));
+        }
+
+        entries.put(contact.contactId, entry);
+        for (String key : entry.textKeys) {
+            put(textIndex, key, contact.contactId);
+        }
+        for (String key : entry.digitKeys) {
+            put(digitIndex, key, contact.contactId);
+        }
+        for (String key : entry.suffixKeys) {
+            put(suffixIndex, key, contact.contactId);
+        }
+    }
+
+    private void remove(long contactId) {
+        Entry entry = entries.remove(contactId);
+        if (entry == null) {
+            return;
+        }
+        for (String key : entry.textKeys) {
+            delete(textIndex, key, contactId);
+        }
+        for (String key : entry.digitKeys) {
+            delete(digitIndex, key, contactId);
+        }
+        for (String key : entry.suffixKeys) {
+            delete(suffixIndex, key, contactId);
+        }
+    }
+
+    private static Set<Long> prefixMatches(TreeMap<String, long[]> index, String prefix) {
+        Set<Long> matches = new HashSet<>();
+        SortedMap<String, long[]> range = index.subMap(prefix, prefix + Character.MAX_VALUE);
+        for (long[] contactIds : range.values()) {
+            for (long contactId : contactIds) {
+                matches.add(contactId);
+            }
+        }
+        return matches;
+    }
+
+    private static void put(TreeMap<String, long[]> index, String key, long contactId) {
+        long[] contactIds = index.get(key);
+        if (contactIds == null) {
+            index.put(key, new long[]{contactId});
+            return;
+        }
+        long[] grown = Arrays.copyOf(contactIds, contactIds.length + 1);
+        grown[contactIds.length] = contactId;
+        index.put(key, grown);
+    }
+
+    private static void delete(TreeMap<String, long[]> index, String key, long contactId) {
+        long[] contactIds = index.get(key);
+        if (contactIds == null) {
+            return;
+        }
+        if (contactIds.length == 1) {
+            if (contactIds[0] == contactId) {
+                index.remove(key);
+            }
+            return;
+        }
+        long[] shrunk = new long[contactIds.length - 1];
+        int size = 0;
+        for (long id : contactIds) {
+            if (id != contactId && size < shrunk.length) {
+                shrunk[size++] = id;
+            }
+        }
+        index.put(key, size == shrunk.length ? shrunk : Arrays.copyOf(shrunk, size));
+    }
+
+    /**
+     * Lower case without diacritics.
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder normalized = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+    static String[] tokenize(String normalizedText) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalizedText.length(); i++) {
+            boolean letterOrDigit = i < normalizedText.length() && Character.isLetterOrDigit(normalizedText.charAt(i));
+            if (letterOrDigit && start == -1) {
+                start = i;
+            } else if (!letterOrDigit && start != -1) {
+                tokens.add(normalizedText.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    static String digitsOf(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder digits = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+
+    private static String stripLeadingZeros(String digits) {
+        int start = 0;
+        while (start < digits.length() && digits.charAt(start) == '0') {
+            start++;
+        }
+        return digits.substring(start);
+    }
+
+    private static String reverse(String text) {
+        return new StringBuilder(text).reverse().toString();
+    }
+}
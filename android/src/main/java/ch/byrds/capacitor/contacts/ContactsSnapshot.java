@@ -0,0 +1,87 @@
+package ch.byrds.capacitor.contacts;
+
+import android.util.LruCache;
+
+/**
+ * Memory bounded cache of getContacts results. An entry is only returned
+ * while the observer generation it was read at is still current.
+ * Results are kept serialized: the string is what the size limit counts,
+ * where the object tree of a result retains several times its size.
+ */
+class ContactsSnapshot implements ContactsObserver.Listener {
+
+    static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    static class Entry {
+
+        /**
+         * The serialized result, parsed again on every hit.
+         */
+        final String json;
+        final long generation;
+        /**
+         * UTF-8 length of the serialized result.
+         */
+        final int payloadBytes;
+
+        Entry(String json, long generation, int payloadBytes) {
+            this.json = json;
+            this.generation = generation;
+            this.payloadBytes = payloadBytes;
+        }
+    }
+
+    private final ContactsObserver observer;
+    private final LruCache<String, Entry> entries;
+
+    ContactsSnapshot(ContactsObserver observer, int maxBytes) {
+        this.observer = observer;
+        this.entries = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                // strings are UTF-16, two bytes per char
+                return entry.json.length() * 2;
+            }
+        };
+    }
+
+    /**
+     * Generation to pass to {@link #put}, to be taken before the provider is read.
+     */
+    long generation() {
+        return observer.generation();
+    }
+
+    Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.generation != observer.generation()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @param json         the serialized result
+     * @param payloadBytes UTF-8 length of the serialized result, see {@link CallMetrics#utf8Length}
+     */
+    void put(String key, long generation, String json, int payloadBytes) {
+        if (generation != observer.generation()) {
+            // the provider changed while reading
+            return;
+        }
+        entries.put(key, new Entry(json, generation, payloadBytes));
+    }
+
+    void clear() {
+        entries.evictAll();
+    }
+
+    @Override
+    public void onContactsChanged() {
+        clear();
+    }
+}
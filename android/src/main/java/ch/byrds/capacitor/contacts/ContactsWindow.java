@@ -0,0 +1,84 @@
+package ch.byrds.capacitor.contacts;
+
+import android.provider.ContactsContract;
+
+import com.getcapacitor.PluginCall;
+
+/**
+ * Sort order, offset and limit of a getContacts read.
+ */
+class ContactsWindow {
+
+    static final String SORT_BY = "sortBy";
+    static final String OFFSET = "offset";
+    static final String LIMIT = "limit";
+
+    static final String SORT_DISPLAY_NAME = "displayName";
+    static final String SORT_DISPLAY_NAME_ALTERNATIVE = "displayNameAlternative";
+    static final String SORT_LAST_UPDATED = "lastUpdated";
+
+    static final ContactsWindow ALL = new ContactsWindow(null, 0, 0);
+
+    /**
+     * One of the SORT constants, null to sort by contact id.
+     */
+    final String sortBy;
+    final int offset;
+    /**
+     * Maximum number of contacts, 0 for no limit.
+     */
+    final int limit;
+
+    ContactsWindow(String sortBy, int offset, int limit) {
+        if (sortBy != null
+                && !SORT_DISPLAY_NAME.equals(sortBy)
+                && !SORT_DISPLAY_NAME_ALTERNATIVE.equals(sortBy)
+                && !SORT_LAST_UPDATED.equals(sortBy)) {
+            throw new IllegalArgumentException("Unknown sortBy " + sortBy);
+        }
+        this.sortBy = sortBy;
+        this.offset = Math.max(offset, 0);
+        this.limit = Math.max(limit, 0);
+    }
+
+    static ContactsWindow fromCall(PluginCall call) {
+        return new ContactsWindow(call.getString(SORT_BY), call.getInt(OFFSET, 0), call.getInt(LIMIT, 0));
+    }
+
+    /**
+     * Whether the contact ids of the window are read first. Sorting and limiting
+     * the contacts is then done by the provider on one row per contact, instead
+     * of sorting all data rows to read a few contacts.
+     */
+    boolean isWindowed() {
+        return offset > 0 || (sortBy != null && limit > 0);
+    }
+
+    /**
+     * Whether the read lists the contacts without any of the requested data.
+     * Windows are read from the Contacts table and hold every contact, so sorted
+     * and limited reads list them too, and concatenated windows match the read
+     * of all contacts in the same order.
+     */
+    boolean listsAllContacts() {
+        return sortBy != null || offset > 0 || limit > 0;
+    }
+
+    /**
+     * Sort order on the given contact id column. Ties are broken by contact id,
+     * which also keeps the rows of a contact together.
+     */
+    String sortOrder(String contactIdColumn) {
+        if (sortBy == null) {
+            return contactIdColumn + " ASC";
+        }
+        switch (sortBy) {
+            case SORT_DISPLAY_NAME:
+                return ContactsContract.Contacts.SORT_KEY_PRIMARY + ", " + contactIdColumn + " ASC";
+            case SORT_DISPLAY_NAME_ALTERNATIVE:
+                return ContactsContract.Contacts.SORT_KEY_ALTERNATIVE + ", " + contactIdColumn + " ASC";
+            default:
+                return ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " DESC, " + contactIdColumn + " ASC";
+        }
+    }
+}
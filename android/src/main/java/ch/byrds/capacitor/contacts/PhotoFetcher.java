@@ -0,0 +1,73 @@
+package ch.byrds.capacitor.contacts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Downloads photos with connect and read timeouts and a maximum size.
+ * Uses no Android APIs so it can be tested on the JVM against a local server.
+ */
+class PhotoFetcher {
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+    static final int DEFAULT_MAX_BYTES = 5 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final int maxBytes;
+
+    PhotoFetcher() {
+        this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS, DEFAULT_MAX_BYTES);
+    }
+
+    PhotoFetcher(int connectTimeoutMs, int readTimeoutMs, int maxBytes) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @throws IOException if the download fails, times out or exceeds the maximum size
+     */
+    byte[] fetch(String url) throws IOException {
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(connectTimeoutMs);
+        connection.setReadTimeout(readTimeoutMs);
+        try {
+            if (connection instanceof HttpURLConnection) {
+                int status = ((HttpURLConnection) connection).getResponseCode();
+                if (status < 200 || status >= 300) {
+                    throw new IOException("HTTP " + status + " for " + url);
+                }
+            }
+            int length = connection.getContentLength();
+            if (length > maxBytes) {
+                throw new IOException("Photo of " + length + " bytes exceeds " + maxBytes + " bytes: " + url);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? length : BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = connection.getInputStream()) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (out.size() + read > maxBytes) {
+                        throw new IOException("Photo exceeds " + maxBytes + " bytes: " + url);
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ch.byrds.capacitor.contacts;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Event;
+import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
+import android.provider.ContactsContract.CommonDataKinds.Organization;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.Photo;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Fills a {@link FakeContactsProvider} with a reproducible address book. Per contact
+ * there are up to three phone numbers and two email addresses, and a birthday,
+ * an organization, a photo and group memberships for a share of the contacts.
+ * Every {@link #PERSONAL_CONTACT_INTERVAL}th contact belongs to the visible personal
+ * account, the others to an invisible corporate directory.
+ */
+class AddressBookGenerator {
+
+    static final int GROUPS = 10;
+    static final int PERSONAL_CONTACT_INTERVAL = 5;
+
+    static final String PERSONAL_ACCOUNT_TYPE = "com.google";
+    static final String PERSONAL_ACCOUNT_NAME = "benchmark@example.com";
+    static final String DIRECTORY_ACCOUNT_TYPE = "com.android.exchange";
+    static final String DIRECTORY_ACCOUNT_NAME = "benchmark@corp.example.com";
+
+    private static final String[] GIVEN_NAMES = {
+            "Anna", "Luca", "Sofia", "Noah", "Mia", "Elias", "Léa", "Jonas", "Emma", "Matteo",
+            "Zoë", "Liam", "Chloé", "David", "Lina", "Nico", "Sara", "Tim", "Julia", "Ömer"
+    };
+    private static final String[] FAMILY_NAMES = {
+            "Müller", "Meier", "Schmid", "Keller", "Weber", "Huber", "Schneider", "Meyer", "Steiner", "Fischer",
+            "Gerber", "Brunner", "Baumann", "Frei", "Zimmermann", "Moser", "Widmer", "Wyss", "Graf", "Roth"
+    };
+    private static final String[] COMPANIES = {"Acme AG", "Byrds GmbH", "Helvetia", "Globex", "Initech"};
+    private static final String[] TITLES = {"Engineer", "Manager", "Designer", "Director", ""};
+
+    private final Random random = new Random(42);
+
+    /**
+     * Last update timestamp of the generated contact with the given id, increasing with the id.
+     */
+    static long lastUpdated(long contactId) {
+        return 1600000000000L + contactId * 1000;
+    }
+
+    /**
+     * Adds the given number of contacts, with one raw contact each, and {@link #GROUPS} groups.
+     */
+    void generate(SQLiteDatabase db, int contactCount) {
+        db.beginTransaction();
+        try {
+            SQLiteStatement insertGroup = db.compileStatement(
+                    "INSERT INTO groups (title, account_type, account_name) VALUES (?, ?, ?)");
+            for (int i = 1; i <= GROUPS; i++) {
+                insertGroup.bindString(1, "Group " + i);
+                insertGroup.bindString(2, PERSONAL_ACCOUNT_TYPE);
+                insertGroup.bindString(3, PERSONAL_ACCOUNT_NAME);
+                insertGroup.executeInsert();
+            }
+
+            SQLiteStatement insertContact = db.compileStatement(
+                    "INSERT INTO contacts (_id, display_name, contact_last_updated_timestamp, photo_id, photo_file_id, in_visible_group, "
+                            + "sort_key, sort_key_alt) VALUES (?, ?, ?, ?, 0, ?, ?, ?)");
+            SQLiteStatement insertRawContact = db.compileStatement(
+                    "INSERT INTO raw_contacts (_id, contact_id, account_type, account_name) VALUES (?, ?, ?, ?)");
+            SQLiteStatement insertData = db.compileStatement(
+                    "INSERT INTO data_rows (raw_contact_id, mimetype, data1, data2, data3, data4) VALUES (?, ?, ?, ?, ?, ?)");
+            SQLiteStatement insertPhoto = db.compileStatement(
+                    "INSERT INTO data_rows (raw_contact_id, mimetype, data15) VALUES (?, ?, ?)");
+
+            for (long id = 1; id <= contactCount; id++) {
+                String givenName = GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)];
+                String familyName = FAMILY_NAMES[random.nextInt(FAMILY_NAMES.length)];
+                String displayName = givenName + " " + familyName;
+                boolean hasPhoto = random.nextInt(100) < 15;
+
+                insertContact.bindLong(1, id);
+                insertContact.bindString(2, displayName);
+                insertContact.bindLong(3, lastUpdated(id));
+                insertContact.bindLong(4, hasPhoto ? id : 0);
+                boolean personal = id % PERSONAL_CONTACT_INTERVAL == 0;
+                insertContact.bindLong(5, personal ? 1 : 0);
+                insertContact.bindString(6, displayName);
+                insertContact.bindString(7, familyName + ", " + givenName);
+                insertContact.executeInsert();
+
+                insertRawContact.bindLong(1, id);
+                insertRawContact.bindLong(2, id);
+                insertRawContact.bindString(3, personal ? PERSONAL_ACCOUNT_TYPE : DIRECTORY_ACCOUNT_TYPE);
+                insertRawContact.bindString(4, personal ? PERSONAL_ACCOUNT_NAME : DIRECTORY_ACCOUNT_NAME);
+                insertRawContact.executeInsert();
+
+                data(insertData, id, StructuredName.CONTENT_ITEM_TYPE, displayName, givenName, familyName, null);
+
+                int phones = random.nextInt(4);
+                for (int i = 0; i < phones; i++) {
+                    String number = String.format(Locale.ROOT, "+41 7%d %03d %02d %02d",
+                            random.nextInt(10), random.nextInt(1000), random.nextInt(100), random.nextInt(100));
+                    int type = random.nextInt(4);
+                    data(insertData, id, Phone.CONTENT_ITEM_TYPE, number, String.valueOf(type),
+                            type == Phone.TYPE_CUSTOM ? "Ferienhaus" : null, null);
+                }
+
+                int emails = random.nextInt(3);
+                for (int i = 0; i < emails; i++) {
+                    String address = givenName.toLowerCase(Locale.ROOT) + "." + familyName.toLowerCase(Locale.ROOT) + i + "@example.com";
+                    data(insertData, id, Email.CONTENT_ITEM_TYPE, address, String.valueOf(Email.TYPE_HOME + random.nextInt(3)), null, null);
+                }
+
+                if (random.nextInt(100) < 25) {
+                    String birthday = String.format(Locale.ROOT, "%04d-%02d-%02d",
+                            1950 + random.nextInt(55), 1 + random.nextInt(12), 1 + random.nextInt(28));
+                    data(insertData, id, Event.CONTENT_ITEM_TYPE, birthday, String.valueOf(Event.TYPE_BIRTHDAY), null, null);
+                }
+
+                if (random.nextInt(100) < 40) {
+                    data(insertData, id, Organization.CONTENT_ITEM_TYPE,
+                            COMPANIES[random.nextInt(COMPANIES.length)], null, null, TITLES[random.nextInt(TITLES.length)]);
+                }
+
+                if (hasPhoto) {
+                    byte[] photo = new byte[3 * 1024 + random.nextInt(5 * 1024)];
+                    random.nextBytes(photo);
+                    insertPhoto.bindLong(1, id);
+                    insertPhoto.bindString(2, Photo.CONTENT_ITEM_TYPE);
+                    insertPhoto.bindBlob(3, photo);
+                    insertPhoto.executeInsert();
+                }
+
+                int groups = random.nextInt(3);
+                for (int i = 0; i < groups; i++) {
+                    data(insertData, id, GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(1 + random.nextInt(GROUPS)), null, null, null);
+                }
+            }
+            db.execSQL("UPDATE contacts SET has_phone_number = EXISTS (SELECT 1 FROM data_rows d "
+                    + "JOIN raw_contacts r ON d.raw_contact_id = r._id "
+                    + "WHERE r.contact_id = contacts._id AND d.mimetype = ?)", new Object[]{Phone.CONTENT_ITEM_TYPE});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void data(SQLiteStatement insert, long rawContactId, String mimeType,
+                             String data1, String data2, String data3, String data4) {
+        insert.clearBindings();
+        insert.bindLong(1, rawContactId);
+        insert.bindString(2, mimeType);
+        bind(insert, 3, data1);
+        bind(insert, 4, data2);
+        bind(insert, 5, data3);
+        bind(insert, 6, data4);
+        insert.executeInsert();
+    }
+
+    private static void bind(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
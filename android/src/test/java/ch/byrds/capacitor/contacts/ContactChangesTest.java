@@ -0,0 +1,106 @@
+package ch.byrds.capacitor.contacts;
+
+import static org.junit.Assert.*;
+
+import android.os.CancellationSignal;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Delta sync through {@link ContactsReader#readContactChanges}, the way getContactChanges reads it.
+ */
+public class ContactChangesTest extends ContactsProviderTest<FakeContactsProvider> {
+
+    private static final int CONTACTS = 20;
+
+    private ContactsReader reader;
+
+    public ContactChangesTest() {
+        super(FakeContactsProvider.class, CONTACTS);
+    }
+
+    @Before
+    public void setUp() {
+        reader = new ContactsReader(contentResolver, new CancellationSignal(), CallMetrics.NONE);
+    }
+
+    @Test
+    public void firstSyncReturnsAllContacts() throws Exception {
+        JSObject result = readChanges(0);
+        assertEquals(CONTACTS, result.getJSONArray("contacts").length());
+        assertEquals(0, result.getJSONArray("deletedContactIds").length());
+        assertEquals(AddressBookGenerator.lastUpdated(CONTACTS), result.getLong("watermark"));
+    }
+
+    @Test
+    public void nextSyncReturnsOnlyChangedContacts() throws Exception {
+        long watermark = readChanges(0).getLong("watermark");
+        assertEquals(0, readChanges(watermark).getJSONArray("contacts").length());
+
+        touch(3, watermark + 10);
+        JSObject result = readChanges(watermark);
+        assertEquals(Collections.singletonList("3"), contactIds(result));
+        assertEquals(watermark + 10, result.getLong("watermark"));
+    }
+
+    @Test
+    public void contactWithoutRequestedRowsLeftIsChanged() throws Exception {
+        long watermark = readChanges(0).getLong("watermark");
+
+        // the last phone number of the contact is removed
+        db.execSQL("DELETE FROM data_rows WHERE mimetype = ? AND raw_contact_id = 5", new Object[]{Phone.CONTENT_ITEM_TYPE});
+        touch(5, watermark + 10);
+
+        JSObject result = readChanges(watermark);
+        assertEquals(Collections.singletonList("5"), contactIds(result));
+        assertEquals(0, result.getJSONArray("contacts").getJSONObject(0).getJSONArray(Contacts.PHONE_NUMBERS).length());
+    }
+
+    @Test
+    public void deletedContactsAreReturnedAsTombstones() throws Exception {
+        long watermark = readChanges(0).getLong("watermark");
+
+        new ContactsDeleter(contentResolver, new CancellationSignal(),
+                (processed, total, deleted) -> {
+                }).deleteByContactIds(Collections.singletonList("7"));
+
+        JSObject result = readChanges(watermark);
+        assertEquals(0, result.getJSONArray("contacts").length());
+        JSONArray deletedContactIds = result.getJSONArray("deletedContactIds");
+        assertEquals(1, deletedContactIds.length());
+        assertEquals("7", deletedContactIds.getString(0));
+
+        long deletedWatermark = result.getLong("watermark");
+        assertTrue(deletedWatermark > watermark);
+        assertEquals(0, readChanges(deletedWatermark).getJSONArray("deletedContactIds").length());
+    }
+
+    private JSObject readChanges(long since) {
+        return reader.readContactChanges(
+                ContactsQuery.forFields(Collections.singletonList(ContactsQuery.FIELD_PHONE_NUMBERS), true),
+                since
+        );
+    }
+
+    private void touch(long contactId, long timestamp) {
+        db.execSQL("UPDATE contacts SET contact_last_updated_timestamp = ? WHERE _id = ?", new Object[]{timestamp, contactId});
+    }
+
+    private static List<String> contactIds(JSObject result) throws Exception {
+        List<String> contactIds = new ArrayList<>();
+        JSONArray contacts = result.getJSONArray("contacts");
+        for (int i = 0; i < contacts.length(); i++) {
+            contactIds.add(contacts.getJSONObject(i).getString(Contacts.CONTACT_ID));
+        }
+        return contactIds;
+    }
+}
@@ -0,0 +1,43 @@
+package ch.byrds.capacitor.contacts;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ContactDuplicateFinderTest {
+
+    @Test
+    public void phoneKeyIgnoresCountryCodeAndTrunkPrefix() {
+        String key = ContactDuplicateFinder.phoneKey("+41 79 123 45 67");
+        assertEquals("791234567", key);
+        assertEquals(key, ContactDuplicateFinder.phoneKey("079 123 45 67"));
+        assertEquals(key, ContactDuplicateFinder.phoneKey("0041791234567"));
+    }
+
+    @Test
+    public void phoneKeyIgnoresShortNumbers() {
+        assertNull(ContactDuplicateFinder.phoneKey("112"));
+        assertNull(ContactDuplicateFinder.phoneKey("00 1234"));
+        assertNull(ContactDuplicateFinder.phoneKey(null));
+    }
+
+    @Test
+    public void emailKeyIsCaseInsensitive() {
+        assertEquals("jane.doe@example.com", ContactDuplicateFinder.emailKey(" Jane.Doe@Example.com"));
+        assertNull(ContactDuplicateFinder.emailKey(" "));
+    }
+
+    @Test
+    public void nameKeyIgnoresDiacriticsPunctuationAndOrder() {
+        String key = ContactDuplicateFinder.nameKey("Zoë Müller");
+        assertEquals(key, ContactDuplicateFinder.nameKey("Muller, Zoe"));
+        assertEquals(key, ContactDuplicateFinder.nameKey("zoe  MÜLLER"));
+    }
+
+    @Test
+    public void nameKeyIgnoresNamesWithoutLetters() {
+        assertNull(ContactDuplicateFinder.nameKey("+41 79 123 45 67"));
+        assertNull(ContactDuplicateFinder.nameKey("jane@example.com"));
+        assertNull(ContactDuplicateFinder.nameKey(null));
+    }
+}
@@ -0,0 +1,81 @@
+package ch.byrds.capacitor.contacts;
+
+import static org.junit.Assert.*;
+
+import android.os.CancellationSignal;
+import android.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Membership filters of {@link ContactGroupsReader} with more ids than fit in one selection.
+ */
+public class ContactGroupsReaderTest extends ContactsProviderTest<FakeContactsProvider> {
+
+    private static final int CONTACTS = 1200;
+    private static final int FILTERED_CONTACTS = 600;
+
+    private ContactGroupsReader reader;
+
+    public ContactGroupsReaderTest() {
+        super(FakeContactsProvider.class, CONTACTS);
+    }
+
+    @Before
+    public void setUp() {
+        reader = new ContactGroupsReader(contentResolver, new CancellationSignal(), CallMetrics.NONE);
+    }
+
+    @Test
+    public void filtersByManyGroupsAndContacts() {
+        // three existing groups, padded with unknown ones
+        List<String> groupIds = new ArrayList<>(Arrays.asList("1", "2", "3"));
+        for (int i = 1; i <= FILTERED_CONTACTS; i++) {
+            groupIds.add(String.valueOf(1000 + i));
+        }
+        List<String> contactIds = new ArrayList<>();
+        for (int i = 1; i <= FILTERED_CONTACTS; i++) {
+            contactIds.add(String.valueOf(i));
+        }
+
+        LongSparseArray<long[]> memberships = reader.readMemberships(groupIds, contactIds);
+
+        assertEquals(expected(reader.readMemberships(null, null), 3), toString(memberships));
+        assertTrue(memberships.size() > 0);
+    }
+
+    /**
+     * The memberships of the filtered contacts in groups up to maxGroupId.
+     */
+    private static String expected(LongSparseArray<long[]> all, long maxGroupId) {
+        LongSparseArray<long[]> expected = new LongSparseArray<>();
+        for (int i = 0; i < all.size(); i++) {
+            if (all.keyAt(i) > FILTERED_CONTACTS) {
+                continue;
+            }
+            long[] groups = Arrays.stream(all.valueAt(i)).filter(groupId -> groupId <= maxGroupId).toArray();
+            if (groups.length > 0) {
+                expected.append(all.keyAt(i), groups);
+            }
+        }
+        return toString(expected);
+    }
+
+    /**
+     * The memberships, one contact per line, with the groups sorted as their order is not defined.
+     */
+    private static String toString(LongSparseArray<long[]> memberships) {
+        StringBuilder string = new StringBuilder();
+        for (int i = 0; i < memberships.size(); i++) {
+            long[] groups = memberships.valueAt(i).clone();
+            Arrays.sort(groups);
+            string.append(memberships.keyAt(i)).append('=').append(Arrays.toString(groups)).append('\n');
+        }
+        return string.toString();
+    }
+}
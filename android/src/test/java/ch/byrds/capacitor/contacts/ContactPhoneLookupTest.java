@@ -0,0 +1,149 @@
+package ch.byrds.capacitor.contacts;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Looper;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+import com.getcapacitor.JSObject;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Normalized cache keys of {@link ContactPhoneLookup}, and its cached lookups
+ * against the fake provider.
+ */
+public class ContactPhoneLookupTest extends ContactsProviderTest<ContactPhoneLookupTest.CountingContactsProvider> {
+
+    private static final int CONTACTS = 20;
+    private static final String UNKNOWN_NUMBER = "079 000 00 00";
+
+    /**
+     * Counts the PhoneLookup queries, one per number not answered from the cache.
+     */
+    public static class CountingContactsProvider extends FakeContactsProvider {
+
+        volatile int phoneLookups;
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                            CancellationSignal signal) {
+            if (uri.toString().startsWith(ContactsContract.PhoneLookup.CONTENT_FILTER_URI.toString())) {
+                phoneLookups++;
+            }
+            return super.query(uri, projection, selection, selectionArgs, sortOrder, signal);
+        }
+    }
+
+    private ContactsObserver observer;
+    private ContactPhoneLookup lookup;
+    private long contactId;
+    private String number;
+
+    public ContactPhoneLookupTest() {
+        super(CountingContactsProvider.class, CONTACTS);
+    }
+
+    @Before
+    public void setUp() {
+        observer = new ContactsObserver(contentResolver);
+        lookup = new ContactPhoneLookup(observer, ContactPhoneLookup.DEFAULT_MAX_ENTRIES);
+        // registered as by the plugin, the provider is only observed while there are listeners
+        observer.addListener(lookup);
+        Cursor cursor = db.rawQuery("SELECT contact_id, data1 FROM data WHERE mimetype = ? ORDER BY contact_id LIMIT 1",
+                new String[]{Phone.CONTENT_ITEM_TYPE});
+        try {
+            assertTrue(cursor.moveToFirst());
+            contactId = cursor.getLong(0);
+            number = cursor.getString(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        observer.release();
+    }
+
+    @Test
+    public void normalizeIgnoresFormatting() {
+        String key = ContactPhoneLookup.normalize("+41 79 123 45 67");
+        assertEquals("+41791234567", key);
+        assertEquals(key, ContactPhoneLookup.normalize("+41 (79) 123-45-67"));
+        assertEquals("0791234567", ContactPhoneLookup.normalize("079/123 45 67"));
+    }
+
+    @Test
+    public void normalizeKeepsOnlyLeadingPlus() {
+        assertEquals("4179", ContactPhoneLookup.normalize("41+79"));
+        assertEquals("", ContactPhoneLookup.normalize("+"));
+        assertEquals("", ContactPhoneLookup.normalize(null));
+    }
+
+    @Test
+    public void normalizeKeepsStarAndHash() {
+        assertEquals("*31#0791234567", ContactPhoneLookup.normalize("*31# 079 123 45 67"));
+        assertNotEquals(ContactPhoneLookup.normalize("079 123 45 67"), ContactPhoneLookup.normalize("*31#079 123 45 67"));
+        assertEquals("*100#", ContactPhoneLookup.normalize("*100#"));
+    }
+
+    @Test
+    public void matchIsAnsweredFromTheCache() throws JSONException {
+        assertEquals(String.valueOf(contactId), contactIds(number).get(0));
+        assertEquals(1, provider.phoneLookups);
+
+        assertEquals(String.valueOf(contactId), contactIds(number).get(0));
+        assertEquals(1, provider.phoneLookups);
+    }
+
+    @Test
+    public void missIsCachedUntilTheProviderChanges() throws JSONException {
+        assertNull(contactIds(UNKNOWN_NUMBER).get(0));
+        db.execSQL("INSERT INTO data_rows (raw_contact_id, mimetype, data1, data2) VALUES (?, ?, ?, ?)",
+                new Object[]{contactId, Phone.CONTENT_ITEM_TYPE, UNKNOWN_NUMBER, Phone.TYPE_MOBILE});
+
+        // the cached miss hides the new number until the provider notifies the change
+        assertNull(contactIds(UNKNOWN_NUMBER).get(0));
+        assertEquals(1, provider.phoneLookups);
+
+        // the generation is bumped at once, before the debounced listeners clear the cache
+        contentResolver.notifyChange(ContactsContract.Contacts.CONTENT_URI, null);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(String.valueOf(contactId), contactIds(UNKNOWN_NUMBER).get(0));
+        assertEquals(2, provider.phoneLookups);
+    }
+
+    @Test
+    public void numbersWithStarOrHashHaveEntriesOfTheirOwn() throws JSONException {
+        List<String> contactIds = contactIds(number, "*31#" + number, "#31#" + number);
+
+        assertEquals(Arrays.asList(String.valueOf(contactId), null, null), contactIds);
+        assertEquals(3, provider.phoneLookups);
+    }
+
+    /**
+     * The contact id matched per number, null for numbers without a contact.
+     */
+    private List<String> contactIds(String... numbers) throws JSONException {
+        JSObject result = lookup.lookup(contentResolver, Arrays.asList(numbers), new CancellationSignal(), CallMetrics.NONE);
+        JSONArray matches = result.getJSONArray("matches");
+        String[] contactIds = new String[matches.length()];
+        for (int i = 0; i < contactIds.length; i++) {
+            contactIds[i] = matches.getJSONObject(i).optString(Contacts.CONTACT_ID, null);
+        }
+        return Arrays.asList(contactIds);
+    }
+}
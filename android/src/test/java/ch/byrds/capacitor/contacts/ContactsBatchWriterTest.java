@@ -0,0 +1,211 @@
+package ch.byrds.capacitor.contacts;
+
+import static android.provider.ContactsContract.Data.MIMETYPE;
+import static org.junit.Assert.*;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Photo;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+
+import com.getcapacitor.JSObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Batch results of {@link ContactsBatchWriter} against the fake provider, which
+ * applies a batch in one transaction.
+ */
+public class ContactsBatchWriterTest extends ContactsProviderTest<ContactsBatchWriterTest.FailingContactsProvider> {
+
+    private static final int CONTACTS = 10;
+
+    /**
+     * Fails a chosen batch with a runtime exception, as a provider with a full disk does.
+     */
+    public static class FailingContactsProvider extends FakeContactsProvider {
+
+        volatile int failingBatch = -1;
+        private int batches;
+
+        @Override
+        public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+            if (batches++ == failingBatch) {
+                throw new SQLiteException("disk I/O error");
+            }
+            return super.applyBatch(operations);
+        }
+    }
+
+    private ContactsBatchWriter writer;
+
+    public ContactsBatchWriterTest() {
+        super(FailingContactsProvider.class, CONTACTS);
+    }
+
+    @Before
+    public void setUp() {
+        writer = new ContactsBatchWriter(contentResolver, null, null);
+    }
+
+    @Test
+    public void failingContactsDoNotFailTheBatch() {
+        // the provider rejects the row of the third contact
+        ContentValues rejected = name("Rejected");
+        rejected.put("no_such_column", "x");
+
+        List<JSObject> results = writer.write(Arrays.asList(
+                new ContactsBatchWriter.Entry(-1, rows(name("Anna"))),
+                new ContactsBatchWriter.Entry(3, rows(name("Bea"))),
+                new ContactsBatchWriter.Entry(-1, rows(rejected)),
+                new ContactsBatchWriter.Entry(999, rows(name("Carla"))),
+                new ContactsBatchWriter.Entry(-1, rows(name("Dora")))
+        ));
+
+        assertEquals(5, results.size());
+        assertCreated(results.get(0), "Anna");
+        assertEquals("3", results.get(1).getString(Contacts.CONTACT_ID));
+        assertFalse(results.get(1).getBoolean("created", true));
+        assertEquals(Arrays.asList("Bea"), givenNames(3));
+        assertNotNull(results.get(2).getString("error"));
+        assertEquals("Contact 999 not found", results.get(3).getString("error"));
+        assertCreated(results.get(4), "Dora");
+
+        // the retried halves did not write any contact twice
+        assertEquals(CONTACTS + 2, count("SELECT COUNT(*) FROM raw_contacts"));
+        assertEquals(0, count("SELECT COUNT(*) FROM data_rows WHERE data2 = 'Rejected'"));
+    }
+
+    @Test
+    public void contactsBeforeTheFailingYieldPointKeepTheirResults() {
+        provider.setContended(true);
+        ContentValues rejected = name("Rejected");
+        rejected.put("no_such_column", "x");
+
+        List<JSObject> results = writer.write(Arrays.asList(
+                new ContactsBatchWriter.Entry(-1, rows(name("Anna"))),
+                new ContactsBatchWriter.Entry(3, rows(name("Bea"))),
+                new ContactsBatchWriter.Entry(-1, rows(rejected)),
+                new ContactsBatchWriter.Entry(-1, rows(name("Dora")))
+        ));
+
+        // committed at the yield points before Bea and before the rejected contact
+        assertNull(results.get(0).getString("error"));
+        assertTrue(results.get(0).getBoolean("created", false));
+        assertEquals(1, count("SELECT COUNT(*) FROM data_rows WHERE data2 = 'Anna' AND raw_contact_id > " + CONTACTS));
+        assertEquals("3", results.get(1).getString(Contacts.CONTACT_ID));
+        assertEquals(Arrays.asList("Bea"), givenNames(3));
+        assertNotNull(results.get(2).getString("error"));
+        assertNotNull(results.get(3).getString("error"));
+        assertEquals(CONTACTS + 1, count("SELECT COUNT(*) FROM raw_contacts"));
+    }
+
+    @Test
+    public void failingBatchKeepsTheResultsOfTheBatchesBefore() {
+        provider.failingBatch = 1;
+
+        List<JSObject> results = writer.write(Arrays.asList(
+                new ContactsBatchWriter.Entry(-1, rows(name("Anna"), photo())),
+                new ContactsBatchWriter.Entry(-1, rows(name("Bea"), photo())),
+                new ContactsBatchWriter.Entry(-1, rows(name("Carla"), photo()))
+        ));
+
+        assertCreated(results.get(0), "Anna");
+        assertCreated(results.get(1), "Bea");
+        assertEquals("disk I/O error", results.get(2).getString("error"));
+    }
+
+    @Test
+    public void updateKeepsTheRowsOfMimetypesItDoesNotWrite() {
+        long contactId = 4;
+        ContentValues photo = photo();
+        photo.put(ContactsContract.Data.RAW_CONTACT_ID, contactId);
+        db.insert("data_rows", null, photo);
+
+        List<JSObject> results = writer.write(Collections.singletonList(
+                new ContactsBatchWriter.Entry(contactId, rows(name("Erika")))));
+
+        assertFalse(results.get(0).getBoolean("created", true));
+        assertEquals(Arrays.asList("Erika"), givenNames(contactId));
+        assertEquals(1, count("SELECT COUNT(*) FROM data_rows WHERE mimetype = '" + Photo.CONTENT_ITEM_TYPE
+                + "' AND raw_contact_id = " + contactId));
+    }
+
+    @Test
+    public void contactsWithLargePhotosAreAllWritten() {
+        List<ContactsBatchWriter.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            entries.add(new ContactsBatchWriter.Entry(-1, rows(name("Photo " + i), photo())));
+        }
+
+        List<JSObject> results = writer.write(entries);
+
+        for (int i = 0; i < 3; i++) {
+            assertCreated(results.get(i), "Photo " + i);
+        }
+        assertEquals(3, count("SELECT COUNT(*) FROM data_rows WHERE mimetype = '" + Photo.CONTENT_ITEM_TYPE
+                + "' AND raw_contact_id > " + CONTACTS));
+    }
+
+    private void assertCreated(JSObject result, String givenName) {
+        assertNull(result.getString("error"));
+        assertTrue(result.getBoolean("created", false));
+        assertEquals(Arrays.asList(givenName), givenNames(Long.parseLong(result.getString(Contacts.CONTACT_ID))));
+    }
+
+    private List<String> givenNames(long contactId) {
+        List<String> givenNames = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT data2 FROM data WHERE mimetype = ? AND contact_id = ?",
+                new String[]{StructuredName.CONTENT_ITEM_TYPE, String.valueOf(contactId)});
+        try {
+            while (cursor.moveToNext()) {
+                givenNames.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return givenNames;
+    }
+
+    private long count(String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues name(String givenName) {
+        ContentValues name = new ContentValues();
+        name.put(MIMETYPE, StructuredName.CONTENT_ITEM_TYPE);
+        name.put(StructuredName.GIVEN_NAME, givenName);
+        return name;
+    }
+
+    /**
+     * A photo of half the batch limit, two of them fill a batch.
+     */
+    private static ContentValues photo() {
+        ContentValues photo = new ContentValues();
+        photo.put(MIMETYPE, Photo.CONTENT_ITEM_TYPE);
+        photo.put(Photo.PHOTO, new byte[ContactsBatchWriter.MAX_BATCH_BLOB_BYTES / 2]);
+        return photo;
+    }
+
+    private static List<ContentValues> rows(ContentValues... rows) {
+        return new ArrayList<>(Arrays.asList(rows));
+    }
+}
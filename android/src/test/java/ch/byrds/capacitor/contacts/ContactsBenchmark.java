@@ -0,0 +1,398 @@
+package ch.byrds.capacitor.contacts;
+
+import static org.junit.Assert.*;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Measures the read and write paths of the plugin against a {@link FakeContactsProvider}
+ * filled with generated address books.
+ *
+ * Per operation and address book size it records the median latency, the bytes allocated
+ * by one run and the size of the JSON result. The measurements are written to
+ * build/reports/contacts-benchmark.json and compared with the measurements of the
+ * baseline in src/test/resources/contacts-benchmark-baseline.json. A measurement
+ * without a baseline fails the comparison.
+ *
+ * The benchmark is excluded from ./gradlew test, run it with
+ * ./gradlew test -Pbenchmark --tests '*ContactsBenchmark'
+ * Sizes default to 1000 contacts, the baseline covers 1000 and 10000 contacts,
+ * e.g. -PbenchmarkSizes=1000,10000. -PbenchmarkRecord merges the measurements
+ * into the baseline instead of comparing them, to record new operations or sizes.
+ *
+ * The parallel getContacts reads split the read into 2 and 4 ranges at every
+ * size, without the serial fallback below {@link ContactsReader#PARALLEL_MIN_CONTACTS}
+ * contacts. The threshold is the smallest size at which they beat the serial getContacts.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 32)
+public class ContactsBenchmark {
+
+    private static final String SIZES_PROPERTY = "contacts.benchmark.sizes";
+    private static final String OUTPUT_PROPERTY = "contacts.benchmark.output";
+    private static final String RECORD_PROPERTY = "contacts.benchmark.record";
+    private static final String BASELINE_RESOURCE = "/contacts-benchmark-baseline.json";
+
+    private static final int WARMUP_RUNS = 2;
+    private static final int MEASURED_RUNS = 5;
+    private static final int SAVED_CONTACTS = ContactsBatchWriter.DEFAULT_BATCH_SIZE;
+    private static final int WINDOW_SIZE = 50;
+    private static final int LOOKUP_NUMBERS = 100;
+
+    /**
+     * Allowed regression against the baseline, latency varies with the machine so it gets more room.
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double ALLOCATION_TOLERANCE = 1.25;
+    private static final double PAYLOAD_TOLERANCE = 1.01;
+    /**
+     * Latency regressions below this many milliseconds are ignored, the medians
+     * of fast operations vary by more than the tolerance between runs.
+     */
+    private static final double LATENCY_SLACK_MS = 100;
+
+    private static class Measurement {
+
+        final String operation;
+        final int contacts;
+        final double medianMs;
+        final long allocatedBytes;
+        final long payloadBytes;
+
+        Measurement(String operation, int contacts, double medianMs, long allocatedBytes, long payloadBytes) {
+            this.operation = operation;
+            this.contacts = contacts;
+            this.medianMs = medianMs;
+            this.allocatedBytes = allocatedBytes;
+            this.payloadBytes = payloadBytes;
+        }
+
+        JSONObject toJSON() throws Exception {
+            JSONObject json = new JSONObject();
+            json.put("operation", operation);
+            json.put("contacts", contacts);
+            json.put("medianMs", medianMs);
+            json.put("allocatedBytes", allocatedBytes);
+            json.put("payloadBytes", payloadBytes);
+            return json;
+        }
+    }
+
+    private final CancellationSignal signal = new CancellationSignal();
+    private final ExecutorService partitionExecutor = Executors.newFixedThreadPool(ContactsExecutor.MAX_PARALLELISM);
+
+    @Test
+    public void benchmark() throws Exception {
+        List<Measurement> measurements = new ArrayList<>();
+        try {
+            measureAll(measurements);
+        } finally {
+            partitionExecutor.shutdownNow();
+        }
+        report(measurements);
+
+        String baselineFile = System.getProperty(RECORD_PROPERTY);
+        if (baselineFile != null) {
+            recordBaseline(new File(baselineFile), measurements);
+        } else {
+            compareWithBaseline(measurements);
+        }
+    }
+
+    private void measureAll(List<Measurement> measurements) throws Exception {
+        for (int size : sizes()) {
+            FakeContactsProvider provider = Robolectric
+                    .buildContentProvider(FakeContactsProvider.class)
+                    .create(ContactsContract.AUTHORITY)
+                    .get();
+            new AddressBookGenerator().generate(provider.getDatabase(), size);
+            ContentResolver contentResolver = RuntimeEnvironment.getApplication().getContentResolver();
+
+            ContactsReader contactsReader = new ContactsReader(contentResolver, signal, CallMetrics.NONE);
+            ContactGroupsReader groupsReader = new ContactGroupsReader(contentResolver, signal, CallMetrics.NONE);
+            ContactsReader pairReader = new ContactsReader(contentResolver, signal, CallMetrics.NONE,
+                    partitionExecutor, 2, 0);
+            ContactsReader parallelReader = new ContactsReader(contentResolver, signal, CallMetrics.NONE,
+                    partitionExecutor, ContactsExecutor.MAX_PARALLELISM, 0);
+
+            measurements.add(measure("getContacts", size, () ->
+                    contactsReader.readContacts(ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS)), ContactsWindow.ALL, 0, false, null)));
+            measurements.add(measure("getContacts(columnar)", size, () ->
+                    contactsReader.readContacts(ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS)), ContactsWindow.ALL, 0, true, null)));
+            measurements.add(measure("getContacts(parallelism 2, no minimum)", size, () ->
+                    pairReader.readContacts(ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS)), ContactsWindow.ALL, 0, false, null)));
+            measurements.add(measure("getContacts(parallelism " + ContactsExecutor.MAX_PARALLELISM + ", no minimum)", size, () ->
+                    parallelReader.readContacts(ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS)), ContactsWindow.ALL, 0, false, null)));
+            measurements.add(measure("getContacts(columnar, parallelism " + ContactsExecutor.MAX_PARALLELISM + ", no minimum)", size, () ->
+                    parallelReader.readContacts(ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS)), ContactsWindow.ALL, 0, true, null)));
+            measurements.add(measure("getContacts(names)", size, () ->
+                    contactsReader.readContacts(ContactsQuery.forFields(Collections.emptyList()), ContactsWindow.ALL, 0, false, null)));
+            measurements.add(measure("getContacts(phoneNumbers)", size, () ->
+                    contactsReader.readContacts(ContactsQuery.forFields(Collections.singletonList(ContactsQuery.FIELD_PHONE_NUMBERS)), ContactsWindow.ALL, 0, false, null)));
+            measurements.add(measure("getContacts(sortBy)", size, () ->
+                    contactsReader.readContacts(ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS)),
+                            new ContactsWindow(ContactsWindow.SORT_DISPLAY_NAME, 0, 0), 0, false, null)));
+            measurements.add(measure("getContacts(sortBy, offset, limit)", size, () ->
+                    contactsReader.readContacts(ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS)),
+                            new ContactsWindow(ContactsWindow.SORT_DISPLAY_NAME, size / 2, WINDOW_SIZE), 0, false, null)));
+            measurements.add(measure("getContacts(accountType)", size, () ->
+                    contactsReader.readContacts(ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS))
+                            .withFilter(new ContactsQuery.Filter(AddressBookGenerator.PERSONAL_ACCOUNT_TYPE, null, false, false)), ContactsWindow.ALL, 0, false, null)));
+            measurements.add(measure("getContacts(visibleOnly)", size, () ->
+                    contactsReader.readContacts(ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS))
+                            .withFilter(new ContactsQuery.Filter(null, null, true, false)), ContactsWindow.ALL, 0, false, null)));
+            measurements.add(measure("getContactFingerprints", size, () ->
+                    new ContactFingerprinter(contentResolver, signal, CallMetrics.NONE).readFingerprints()));
+            List<String> numbers = lookupNumbers(provider);
+            ContactsObserver observer = new ContactsObserver(contentResolver);
+            measurements.add(measure("lookupByPhoneNumber(" + LOOKUP_NUMBERS + ")", size, () ->
+                    new ContactPhoneLookup(observer, ContactPhoneLookup.DEFAULT_MAX_ENTRIES)
+                            .lookup(contentResolver, numbers, signal, CallMetrics.NONE)));
+            ContactPhoneLookup cachedLookup = new ContactPhoneLookup(observer, ContactPhoneLookup.DEFAULT_MAX_ENTRIES);
+            measurements.add(measure("lookupByPhoneNumber(" + LOOKUP_NUMBERS + ", cached)", size, () ->
+                    cachedLookup.lookup(contentResolver, numbers, signal, CallMetrics.NONE)));
+            File exportDir = RuntimeEnvironment.getApplication().getFilesDir();
+            measurements.add(measure("exportContacts(vcf)", size, () ->
+                    new ContactsExporter(contentResolver, signal, CallMetrics.NONE).export(
+                            ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS)), ContactsExporter.FORMAT_VCF,
+                            new File(exportDir, "contacts.vcf"), false, null)));
+            measurements.add(measure("exportContacts(ndjson, gzip)", size, () ->
+                    new ContactsExporter(contentResolver, signal, CallMetrics.NONE).export(
+                            ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS)), ContactsExporter.FORMAT_NDJSON,
+                            new File(exportDir, "contacts.ndjson.gz"), true, null)));
+            measurements.add(measure("getGroups", size, () -> {
+                JSObject result = new JSObject();
+                result.put("groups", groupsReader.readAllGroups(null, null, false));
+                return result;
+            }));
+            measurements.add(measure("getContactGroups", size, () ->
+                    groupsReader.readContactGroups(null, null, false)));
+            measurements.add(measure("getContactGroups(groupId)", size, () ->
+                    groupsReader.readContactGroups(Collections.singletonList("1"), null, true)));
+
+            // last, every run adds contacts
+            ContactsBatchWriter writer = new ContactsBatchWriter(contentResolver, null, null);
+            measurements.add(measure("saveContacts(" + SAVED_CONTACTS + ")", size, () -> {
+                List<ContactsBatchWriter.Entry> batch = new ArrayList<>();
+                for (int i = 0; i < SAVED_CONTACTS; i++) {
+                    batch.add(new ContactsBatchWriter.Entry(-1, Contacts.buildContactData(newContact(i), Collections.emptyMap())));
+                }
+                JSArray results = new JSArray();
+                for (JSObject result : writer.write(batch)) {
+                    results.put(result);
+                }
+                JSObject result = new JSObject();
+                result.put("results", results);
+                return result;
+            }));
+        }
+    }
+
+    /**
+     * Phone numbers of the address book, every tenth one unknown.
+     */
+    private static List<String> lookupNumbers(FakeContactsProvider provider) {
+        List<String> numbers = new ArrayList<>();
+        Cursor cursor = provider.getDatabase().rawQuery("SELECT data1 FROM data_rows WHERE mimetype = ? LIMIT ?",
+                new String[]{ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE, String.valueOf(LOOKUP_NUMBERS)});
+        try {
+            while (cursor.moveToNext()) {
+                numbers.add(numbers.size() % 10 == 9 ? "+1 555 010 " + numbers.size() : cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return numbers;
+    }
+
+    private Measurement measure(String operation, int contacts, Callable<JSObject> run) throws Exception {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            run.call();
+        }
+
+        double[] durations = new double[MEASURED_RUNS];
+        long allocatedBytes = -1;
+        long payloadBytes = 0;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            JSObject result = run.call();
+            durations[i] = (System.nanoTime() - start) / 1e6;
+            long allocatedAfter = allocatedBytes();
+
+            if (allocatedBefore >= 0 && (allocatedBytes < 0 || allocatedAfter - allocatedBefore < allocatedBytes)) {
+                allocatedBytes = allocatedAfter - allocatedBefore;
+            }
+            payloadBytes = result.toString().getBytes(StandardCharsets.UTF_8).length;
+        }
+        Arrays.sort(durations);
+        return new Measurement(operation, contacts, durations[MEASURED_RUNS / 2], allocatedBytes, payloadBytes);
+    }
+
+    /**
+     * Bytes allocated by all live threads so far, as the partitions of parallel
+     * reads allocate on threads of their own. -1 if the JVM does not track them.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long allocatedBytes = 0;
+        for (long threadBytes : ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+            // -1 for threads that ended in the meantime
+            allocatedBytes += Math.max(threadBytes, 0);
+        }
+        return allocatedBytes;
+    }
+
+    private static JSObject newContact(int index) throws Exception {
+        JSObject contact = new JSObject();
+        contact.put("givenName", "Benchmark");
+        contact.put("familyName", "Contact " + index);
+        contact.put("organizationName", "Acme AG");
+        contact.put("jobTitle", "Engineer");
+        JSArray phoneNumbers = new JSArray();
+        phoneNumbers.put(new JSObject().put("label", "mobile").put("number", "+41 79 123 45 " + (10 + index % 90)));
+        contact.put("phoneNumbers", phoneNumbers);
+        JSArray emailAddresses = new JSArray();
+        emailAddresses.put(new JSObject().put("label", "work").put("address", "contact" + index + "@example.com"));
+        contact.put("emailAddresses", emailAddresses);
+        return contact;
+    }
+
+    private static void report(List<Measurement> measurements) throws Exception {
+        StringBuilder table = new StringBuilder(String.format(Locale.ROOT, "%-52s %9s %12s %16s %14s%n",
+                "operation", "contacts", "median ms", "allocated bytes", "payload bytes"));
+        JSONArray json = new JSONArray();
+        for (Measurement measurement : measurements) {
+            table.append(String.format(Locale.ROOT, "%-52s %9d %12.2f %16d %14d%n",
+                    measurement.operation, measurement.contacts, measurement.medianMs,
+                    measurement.allocatedBytes, measurement.payloadBytes));
+            json.put(measurement.toJSON());
+        }
+        System.out.print(table);
+
+        write(new File(System.getProperty(OUTPUT_PROPERTY, "build/reports/contacts-benchmark.json")), json);
+    }
+
+    private static void write(File output, JSONArray json) throws Exception {
+        File directory = output.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        try (OutputStream out = new FileOutputStream(output)) {
+            out.write(json.toString(2).getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Replaces the baseline entries of the measured operations and sizes, and keeps the others.
+     */
+    private static void recordBaseline(File baselineFile, List<Measurement> measurements) throws Exception {
+        JSONArray baseline = new JSONArray();
+        if (baselineFile.isFile()) {
+            try (Scanner scanner = new Scanner(baselineFile, "UTF-8")) {
+                baseline = new JSONArray(scanner.useDelimiter("\\A").next());
+            }
+        }
+        for (Measurement measurement : measurements) {
+            int index = indexOf(baseline, measurement);
+            baseline.put(index != -1 ? index : baseline.length(), measurement.toJSON());
+        }
+        write(baselineFile, baseline);
+    }
+
+    private static void compareWithBaseline(List<Measurement> measurements) throws Exception {
+        InputStream in = ContactsBenchmark.class.getResourceAsStream(BASELINE_RESOURCE);
+        assertNotNull("Missing benchmark baseline src/test/resources" + BASELINE_RESOURCE, in);
+        JSONArray baseline;
+        try (Scanner scanner = new Scanner(in, "UTF-8")) {
+            baseline = new JSONArray(scanner.useDelimiter("\\A").next());
+        }
+
+        List<String> missing = new ArrayList<>();
+        List<String> regressions = new ArrayList<>();
+        for (Measurement measurement : measurements) {
+            int index = indexOf(baseline, measurement);
+            if (index == -1) {
+                missing.add(measurement.operation + " with " + measurement.contacts + " contacts");
+            } else {
+                JSONObject expected = baseline.getJSONObject(index);
+                if (measurement.medianMs - expected.getDouble("medianMs") > LATENCY_SLACK_MS) {
+                    check(regressions, measurement, "medianMs", measurement.medianMs, expected.getDouble("medianMs"), LATENCY_TOLERANCE);
+                }
+                if (measurement.allocatedBytes >= 0 && expected.getLong("allocatedBytes") >= 0) {
+                    check(regressions, measurement, "allocatedBytes", measurement.allocatedBytes, expected.getLong("allocatedBytes"), ALLOCATION_TOLERANCE);
+                }
+                check(regressions, measurement, "payloadBytes", measurement.payloadBytes, expected.getLong("payloadBytes"), PAYLOAD_TOLERANCE);
+            }
+        }
+        assertTrue("No benchmark baseline, record one with -PbenchmarkRecord:\n" + String.join("\n", missing), missing.isEmpty());
+        assertTrue("Regressions against the benchmark baseline:\n" + String.join("\n", regressions), regressions.isEmpty());
+    }
+
+    /**
+     * Index of the baseline entry of the measured operation and size, -1 if there is none.
+     */
+    private static int indexOf(JSONArray baseline, Measurement measurement) throws Exception {
+        for (int i = 0; i < baseline.length(); i++) {
+            JSONObject entry = baseline.getJSONObject(i);
+            if (measurement.operation.equals(entry.getString("operation")) && measurement.contacts == entry.getInt("contacts")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void check(List<String> regressions, Measurement measurement, String metric, double actual, double expected, double tolerance) {
+        if (expected > 0 && actual > expected * tolerance) {
+            regressions.add(String.format(Locale.ROOT, "%s with %d contacts: %s %.2f, baseline %.2f",
+                    measurement.operation, measurement.contacts, metric, actual, expected));
+        }
+    }
+
+    private static List<Integer> sizes() {
+        List<Integer> sizes = new ArrayList<>();
+        for (String size : System.getProperty(SIZES_PROPERTY, "1000").split(",")) {
+            if (!size.trim().isEmpty()) {
+                sizes.add(Integer.parseInt(size.trim()));
+            }
+        }
+        return sizes;
+    }
+}
@@ -0,0 +1,102 @@
+package ch.byrds.capacitor.contacts;
+
+import static org.junit.Assert.*;
+
+import android.database.Cursor;
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Deletes through {@link ContactsDeleter} against the fake provider, the way
+ * deleteContacts does.
+ */
+public class ContactsDeleterTest extends ContactsProviderTest<FakeContactsProvider> {
+
+    private static final int CONTACTS = 20;
+
+    private ContactsDeleter deleter;
+    private final List<int[]> progress = new ArrayList<>();
+
+    public ContactsDeleterTest() {
+        super(FakeContactsProvider.class, CONTACTS);
+    }
+
+    @Before
+    public void setUp() {
+        db.execSQL("UPDATE contacts SET lookup = 'lookup' || _id");
+        deleter = new ContactsDeleter(contentResolver, new CancellationSignal(),
+                (processed, total, deleted) -> progress.add(new int[]{processed, total, deleted}));
+    }
+
+    @Test
+    public void deletesByContactIds() {
+        deleter.deleteByContactIds(Arrays.asList("2", "4", "99"));
+
+        assertEquals(2, deleter.getDeleted());
+        assertArrayEquals(new int[]{3, 3, 2}, progress.get(progress.size() - 1));
+        assertDeleted(2, 4);
+    }
+
+    @Test
+    public void deletesByLookupKeys() {
+        // a contact of two raw contacts counts both, as with the other deletes
+        db.execSQL("INSERT INTO raw_contacts (contact_id, account_type, account_name) VALUES (3, 'com.google', 'second')");
+
+        deleter.deleteByLookupKeys(Arrays.asList("lookup3", "lookup7", "unknown"));
+
+        assertEquals(3, deleter.getDeleted());
+        assertArrayEquals(new int[]{3, 3, 3}, progress.get(progress.size() - 1));
+        assertDeleted(3, 7);
+    }
+
+    @Test
+    public void deletesByAccount() {
+        deleter.deleteByAccount(AddressBookGenerator.PERSONAL_ACCOUNT_TYPE, AddressBookGenerator.PERSONAL_ACCOUNT_NAME);
+        assertEquals(4, deleter.getDeleted());
+        assertDeleted(5, 10, 15, 20);
+
+        // another name of the account type is not deleted
+        deleter.deleteByAccount(AddressBookGenerator.DIRECTORY_ACCOUNT_TYPE, "other@corp.example.com");
+        assertEquals(4, deleter.getDeleted());
+        assertEquals(CONTACTS - 4, count("SELECT COUNT(*) FROM contacts"));
+    }
+
+    @Test
+    public void deletesByAccountTypeOfAllNames() {
+        deleter.deleteByAccount(AddressBookGenerator.DIRECTORY_ACCOUNT_TYPE, null);
+
+        assertEquals(CONTACTS - CONTACTS / AddressBookGenerator.PERSONAL_CONTACT_INTERVAL, deleter.getDeleted());
+        assertEquals(0, count("SELECT COUNT(*) FROM raw_contacts WHERE account_type = '"
+                + AddressBookGenerator.DIRECTORY_ACCOUNT_TYPE + "'"));
+        assertEquals(CONTACTS / AddressBookGenerator.PERSONAL_CONTACT_INTERVAL, count("SELECT COUNT(*) FROM contacts"));
+    }
+
+    /**
+     * Asserts that exactly the given contacts are deleted, with their rows and a tombstone each.
+     */
+    private void assertDeleted(long... contactIds) {
+        assertEquals(CONTACTS - contactIds.length, count("SELECT COUNT(*) FROM contacts"));
+        assertEquals(contactIds.length, count("SELECT COUNT(*) FROM deleted_contacts"));
+        for (long contactId : contactIds) {
+            assertEquals(0, count("SELECT COUNT(*) FROM contacts WHERE _id = " + contactId));
+            assertEquals(0, count("SELECT COUNT(*) FROM data_rows WHERE raw_contact_id = " + contactId));
+            assertEquals(1, count("SELECT COUNT(*) FROM deleted_contacts WHERE contact_id = " + contactId));
+        }
+    }
+
+    private long count(String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ch.byrds.capacitor.contacts;
+
+import static org.junit.Assert.*;
+
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ContactsExporterTest {
+
+    @Test
+    public void writesVCardWithTypesAndEscapedValues() throws Exception {
+        ContactRecord contact = new ContactRecord(1, "Doe; Jane, Dr.");
+        contact.phoneNumbers.add(new ContactRecord.LabeledValue(Phone.TYPE_MOBILE, null, "+41 79 123 45 67"));
+        contact.phoneNumbers.add(new ContactRecord.LabeledValue(Phone.TYPE_CUSTOM, "Holiday home", "044 123 45 67"));
+        contact.emails.add(new ContactRecord.LabeledValue(Email.TYPE_WORK, null, "jane@example.com"));
+        contact.birthday = "1990-05-17";
+
+        StringWriter writer = new StringWriter();
+        ContactsExporter.writeVCard(writer, contact);
+
+        assertEquals(
+                "BEGIN:VCARD\r\n"
+                        + "VERSION:3.0\r\n"
+                        + "FN:Doe\\; Jane\\, Dr.\r\n"
+                        + "N:Doe\\; Jane\\, Dr.;;;;\r\n"
+                        + "TEL;TYPE=CELL:+41 79 123 45 67\r\n"
+                        + "TEL;TYPE=X-Holidayhome:044 123 45 67\r\n"
+                        + "EMAIL;TYPE=INTERNET,WORK:jane@example.com\r\n"
+                        + "BDAY:1990-05-17\r\n"
+                        + "END:VCARD\r\n",
+                writer.toString()
+        );
+    }
+
+    @Test
+    public void foldsLongLines() throws Exception {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            name.append('a');
+        }
+        StringWriter writer = new StringWriter();
+        ContactsExporter.writeVCard(writer, new ContactRecord(1, name.toString()));
+
+        String[] lines = writer.toString().split("\r\n");
+        assertEquals("FN:" + name.substring(0, 72), lines[2]);
+        assertEquals(" " + name.substring(72), lines[3]);
+        for (String line : lines) {
+            assertTrue(line.length() <= 75);
+        }
+    }
+
+    @Test
+    public void foldsByUtf8OctetsWithoutSplittingCharacters() throws Exception {
+        // two and four octets per character, the latter a surrogate pair
+        StringBuilder name = new StringBuilder("a");
+        for (int i = 0; i < 40; i++) {
+            name.append("ä\uD83D\uDE00");
+        }
+        StringWriter writer = new StringWriter();
+        ContactsExporter.writeVCard(writer, new ContactRecord(1, name.toString()));
+
+        String vCard = writer.toString();
+        String[] lines = vCard.split("\r\n");
+        // "FN:a" and 11 pairs of 6 octets, the next ä would fit but not its emoji
+        assertEquals("FN:a" + name.substring(1, 1 + 11 * 3) + "ä", lines[2]);
+        for (String line : lines) {
+            byte[] octets = line.getBytes(StandardCharsets.UTF_8);
+            assertTrue(line, octets.length <= 75);
+            assertEquals(line, new String(octets, StandardCharsets.UTF_8));
+        }
+        assertTrue(vCard.replace("\r\n ", "").contains("FN:" + name + "\r\n"));
+    }
+}
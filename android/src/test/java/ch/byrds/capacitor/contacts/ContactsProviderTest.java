@@ -0,0 +1,51 @@
+package ch.byrds.capacitor.contacts;
+
+import android.content.ContentResolver;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.ContactsContract;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests against a {@link FakeContactsProvider} registered for the contacts authority,
+ * filled with the address book of the {@link AddressBookGenerator} before each test.
+ * Subclasses choose a provider subclass to inject failures or count queries.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 32)
+public abstract class ContactsProviderTest<P extends FakeContactsProvider> {
+
+    private final Class<P> providerClass;
+    private final int contacts;
+
+    protected P provider;
+    protected SQLiteDatabase db;
+    protected ContentResolver contentResolver;
+
+    protected ContactsProviderTest(Class<P> providerClass, int contacts) {
+        this.providerClass = providerClass;
+        this.contacts = contacts;
+    }
+
+    @Before
+    public void setUpProvider() {
+        provider = Robolectric
+                .buildContentProvider(providerClass)
+                .create(ContactsContract.AUTHORITY)
+                .get();
+        db = provider.getDatabase();
+        new AddressBookGenerator().generate(db, contacts);
+        contentResolver = RuntimeEnvironment.getApplication().getContentResolver();
+    }
+
+    @After
+    public void closeProvider() {
+        db.close();
+    }
+}
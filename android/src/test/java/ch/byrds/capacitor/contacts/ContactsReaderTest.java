@@ -0,0 +1,174 @@
+package ch.byrds.capacitor.contacts;
+
+import static org.junit.Assert.*;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.provider.ContactsContract;
+
+import com.getcapacitor.JSObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Parallel reads of {@link ContactsReader}, compared with serial reads of the same query.
+ */
+public class ContactsReaderTest extends ContactsProviderTest<ContactsReaderTest.PartitionedContactsProvider> {
+
+    private static final int CONTACTS = ContactsReader.PARALLEL_MIN_CONTACTS + 500;
+    private static final int PARALLELISM = 3;
+    private static final int WINDOW = 700;
+
+    /**
+     * Fails or blocks the queries of the partitions, told apart from serial
+     * reads by their contact id range.
+     */
+    public static class PartitionedContactsProvider extends FakeContactsProvider {
+
+        volatile boolean failLastPartition;
+        volatile boolean blockPartitions;
+        final CountDownLatch partitionsStarted = new CountDownLatch(PARALLELISM);
+        final CountDownLatch partitionsCancelled = new CountDownLatch(PARALLELISM);
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder,
+                            CancellationSignal signal) {
+            boolean lowerBound = selection != null && selection.contains(ContactsContract.Data.CONTACT_ID + ">=?");
+            boolean upperBound = selection != null && selection.contains(ContactsContract.Data.CONTACT_ID + "<?");
+            if (failLastPartition && lowerBound && !upperBound) {
+                throw new OperationCanceledException();
+            }
+            if (blockPartitions && (lowerBound || upperBound)) {
+                partitionsStarted.countDown();
+                while (!signal.isCanceled()) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                partitionsCancelled.countDown();
+                throw new OperationCanceledException();
+            }
+            return super.query(uri, projection, selection, selectionArgs, sortOrder, signal);
+        }
+    }
+
+    private final CancellationSignal signal = new CancellationSignal();
+    private ExecutorService partitionExecutor;
+
+    public ContactsReaderTest() {
+        super(PartitionedContactsProvider.class, CONTACTS);
+    }
+
+    @Before
+    public void setUp() {
+        partitionExecutor = Executors.newFixedThreadPool(ContactsExecutor.MAX_PARALLELISM);
+    }
+
+    @After
+    public void tearDown() {
+        partitionExecutor.shutdownNow();
+    }
+
+    @Test
+    public void parallelReadMatchesSerialRead() {
+        assertEquals(read(1, false).toString(), read(PARALLELISM, false).toString());
+    }
+
+    @Test
+    public void parallelColumnarReadMatchesSerialRead() {
+        assertEquals(read(1, true).toString(), read(ContactsExecutor.MAX_PARALLELISM, true).toString());
+    }
+
+    @Test
+    public void filteredParallelReadMatchesSerialRead() {
+        // the bounds split all contacts, the filtered ones are spread unevenly
+        ContactsQuery query = ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS), true)
+                .withFilter(new ContactsQuery.Filter(AddressBookGenerator.PERSONAL_ACCOUNT_TYPE, null, false, false));
+        JSObject serial = read(query, 1, signal);
+        assertEquals(CONTACTS / AddressBookGenerator.PERSONAL_CONTACT_INTERVAL, serial.getInteger("count").intValue());
+        assertEquals(serial.toString(), read(query, PARALLELISM, signal).toString());
+    }
+
+    @Test
+    public void cancelledPartitionFailsTheRead() {
+        provider.failLastPartition = true;
+        assertThrows(OperationCanceledException.class, () -> read(allFields(), PARALLELISM, signal));
+    }
+
+    @Test
+    public void cancelledReadCancelsItsPartitions() throws Exception {
+        provider.blockPartitions = true;
+        CancellationSignal callSignal = new CancellationSignal();
+        ExecutorService callExecutor = Executors.newSingleThreadExecutor();
+        try {
+            Future<JSObject> result = callExecutor.submit(() -> read(allFields(), PARALLELISM, callSignal));
+            assertTrue(provider.partitionsStarted.await(10, TimeUnit.SECONDS));
+
+            callSignal.cancel();
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof OperationCanceledException);
+            assertTrue(provider.partitionsCancelled.await(10, TimeUnit.SECONDS));
+        } finally {
+            callExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void sortedReadMatchesItsWindows() throws JSONException {
+        // a quarter of the generated contacts has no phone numbers
+        ContactsWindow all = new ContactsWindow(ContactsWindow.SORT_DISPLAY_NAME, 0, 0);
+        JSONArray sorted = readPhoneNumbers(all).getJSONArray("contacts");
+        assertEquals(CONTACTS, sorted.length());
+
+        JSONArray windows = new JSONArray();
+        for (int offset = 0; offset < CONTACTS; offset += WINDOW) {
+            JSONArray window = readPhoneNumbers(new ContactsWindow(ContactsWindow.SORT_DISPLAY_NAME, offset, WINDOW))
+                    .getJSONArray("contacts");
+            for (int i = 0; i < window.length(); i++) {
+                windows.put(window.get(i));
+            }
+        }
+        assertEquals(sorted.toString(), windows.toString());
+    }
+
+    private JSObject readPhoneNumbers(ContactsWindow window) {
+        ContactsQuery query = ContactsQuery.forFields(
+                Collections.singletonList(ContactsQuery.FIELD_PHONE_NUMBERS),
+                window.listsAllContacts()
+        );
+        return new ContactsReader(contentResolver, signal, CallMetrics.NONE).readContacts(query, window, 0, false, null);
+    }
+
+    private JSObject read(int parallelism, boolean columnar) {
+        ContactsReader reader = new ContactsReader(contentResolver, signal, CallMetrics.NONE, partitionExecutor, parallelism);
+        JSObject result = reader.readContacts(allFields(), ContactsWindow.ALL, 0, columnar, null);
+        assertEquals(CONTACTS, result.getInteger("count").intValue());
+        return result;
+    }
+
+    private JSObject read(ContactsQuery query, int parallelism, CancellationSignal signal) {
+        ContactsReader reader = new ContactsReader(contentResolver, signal, CallMetrics.NONE, partitionExecutor, parallelism);
+        return reader.readContacts(query, ContactsWindow.ALL, 0, false, null);
+    }
+
+    private static ContactsQuery allFields() {
+        return ContactsQuery.forFields(Arrays.asList(ContactsQuery.ALL_FIELDS), true);
+    }
+}
@@ -0,0 +1,95 @@
+package ch.byrds.capacitor.contacts;
+
+import static org.junit.Assert.*;
+
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Incremental updates of the {@link ContactsSearchIndex} after edits and deletes.
+ */
+public class ContactsSearchIndexTest extends ContactsProviderTest<FakeContactsProvider> {
+
+    private static final int CONTACTS = 50;
+    private static final long CONTACT_ID = 3;
+
+    private final CancellationSignal signal = new CancellationSignal();
+    private final ContactsSearchIndex index = new ContactsSearchIndex();
+    private long lastUpdated = AddressBookGenerator.lastUpdated(CONTACTS);
+
+    public ContactsSearchIndexTest() {
+        super(FakeContactsProvider.class, CONTACTS);
+    }
+
+    @Test
+    public void firstUpdateIndexesAllContacts() {
+        assertEquals(-1, index.generation());
+        index.update(contentResolver, 1, signal);
+        assertEquals(1, index.generation());
+
+        Cursor cursor = db.rawQuery("SELECT _id, display_name FROM contacts", null);
+        try {
+            while (cursor.moveToNext()) {
+                List<Long> contactIds = contactIds(index.search(cursor.getString(1), CONTACTS));
+                assertTrue(cursor.getString(1), contactIds.contains(cursor.getLong(0)));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void editedContactIsFoundByItsNewNameAndNumberOnly() {
+        index.update(contentResolver, 1, signal);
+
+        rename("Quirin Zwyssig");
+        db.execSQL("INSERT INTO data_rows (raw_contact_id, mimetype, data1, data2) VALUES (?, ?, ?, ?)",
+                new Object[]{CONTACT_ID, Phone.CONTENT_ITEM_TYPE, "+41 44 987 65 43", String.valueOf(Phone.TYPE_WORK)});
+        index.update(contentResolver, 2, signal);
+
+        assertEquals(Collections.singletonList(CONTACT_ID), contactIds(index.search("quirin", 10)));
+        assertEquals(Collections.singletonList(CONTACT_ID), contactIds(index.search("zwys", 10)));
+        // the number matches with and without country code
+        assertEquals(Collections.singletonList(CONTACT_ID), contactIds(index.search("044 987 65 43", 10)));
+
+        rename("Xaver Zwyssig");
+        index.update(contentResolver, 3, signal);
+
+        assertTrue(index.search("quirin", 10).isEmpty());
+        assertEquals(Collections.singletonList(CONTACT_ID), contactIds(index.search("xaver", 10)));
+    }
+
+    @Test
+    public void deletedContactIsRemoved() {
+        rename("Quirin Zwyssig");
+        index.update(contentResolver, 1, signal);
+        assertEquals(1, index.search("zwyssig", 10).size());
+
+        new ContactsDeleter(contentResolver, signal, (processed, total, deleted) -> {
+        }).deleteByContactIds(Collections.singletonList(String.valueOf(CONTACT_ID)));
+        index.update(contentResolver, 2, signal);
+
+        assertTrue(index.search("zwyssig", 10).isEmpty());
+    }
+
+    private void rename(String displayName) {
+        lastUpdated += 1000;
+        db.execSQL("UPDATE contacts SET display_name = ?, contact_last_updated_timestamp = ? WHERE _id = ?",
+                new Object[]{displayName, lastUpdated, CONTACT_ID});
+    }
+
+    private static List<Long> contactIds(List<ContactRecord> contacts) {
+        List<Long> contactIds = new ArrayList<>();
+        for (ContactRecord contact : contacts) {
+            contactIds.add(contact.contactId);
+        }
+        return contactIds;
+    }
+}
@@ -0,0 +1,103 @@
+package ch.byrds.capacitor.contacts;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ContentResolver;
+import android.os.Looper;
+import android.provider.ContactsContract;
+
+import java.time.Duration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Invalidation of {@link ContactsSnapshot} entries by the generation of the
+ * {@link ContactsObserver}, with provider changes notified on the contacts URI.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 32)
+public class ContactsSnapshotTest {
+
+    private static final String KEY = "getContacts:{}";
+    private static final String RESULT = "{\"contacts\":[]}";
+
+    private ContentResolver contentResolver;
+    private ContactsObserver observer;
+    private ContactsSnapshot snapshot;
+
+    @Before
+    public void setUp() {
+        contentResolver = RuntimeEnvironment.getApplication().getContentResolver();
+        observer = new ContactsObserver(contentResolver);
+        snapshot = new ContactsSnapshot(observer, ContactsSnapshot.DEFAULT_MAX_BYTES);
+        observer.addListener(snapshot);
+    }
+
+    @After
+    public void tearDown() {
+        observer.release();
+    }
+
+    @Test
+    public void entryIsReturnedUntilTheProviderChanges() {
+        snapshot.put(KEY, snapshot.generation(), RESULT, RESULT.length());
+        assertEquals(RESULT, snapshot.get(KEY).json);
+
+        notifyChange();
+        // stale before the debounced listeners run
+        assertNull(snapshot.get(KEY));
+    }
+
+    @Test
+    public void resultReadDuringAChangeIsNotCached() {
+        long generation = snapshot.generation();
+        notifyChange();
+
+        snapshot.put(KEY, generation, RESULT, RESULT.length());
+        assertNull(snapshot.get(KEY));
+
+        snapshot.put(KEY, snapshot.generation(), RESULT, RESULT.length());
+        assertNotNull(snapshot.get(KEY));
+    }
+
+    @Test
+    public void listenersClearTheSnapshot() {
+        notifyChange();
+        snapshot.put(KEY, snapshot.generation(), RESULT, RESULT.length());
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1));
+        assertNull(snapshot.get(KEY));
+    }
+
+    @Test
+    public void entriesAreSizedByTheirSerializedChars() {
+        // two bytes per char, the second entry exceeds the limit together with the first
+        ContactsSnapshot small = new ContactsSnapshot(observer, RESULT.length() * 3);
+        small.put(KEY, small.generation(), RESULT, RESULT.length());
+        small.put("other", small.generation(), RESULT, RESULT.length());
+
+        assertNull(small.get(KEY));
+        assertNotNull(small.get("other"));
+    }
+
+    @Test
+    public void removedListenerNoLongerObservesChanges() {
+        observer.removeListener(snapshot);
+        long generation = snapshot.generation();
+
+        notifyChange();
+        assertEquals(generation, snapshot.generation());
+    }
+
+    private void notifyChange() {
+        contentResolver.notifyChange(ContactsContract.Contacts.CONTENT_URI, null);
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}
@@ -0,0 +1,247 @@
+package ch.byrds.capacitor.contacts;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+import java.util.ArrayList;
+
+/**
+ * Contacts provider backed by an in-memory SQLite database. The Data, RawContacts,
+ * Contacts and Groups URIs are served from tables and views using the column names
+ * of ContactsContract, so projections, selections and sort orders of the plugin
+ * are evaluated by SQLite as they are by the platform provider.
+ *
+ * PhoneLookup matches numbers by their digits only, without the country aware
+ * matching of the platform.
+ *
+ * Deleting raw contacts deletes their data rows, and a contact without raw contacts
+ * left is deleted with a DeletedContacts tombstone, as by the platform provider.
+ * Contacts are queried and deleted by lookup key through the Contacts lookup URI,
+ * which only matches exact keys.
+ *
+ * A batch is applied in one transaction and a failed insert returns no URI, so
+ * a batch with a rejected row fails as a whole and leaves no rows behind.
+ * When contended, the provider commits at every yield point of a batch, as the
+ * platform provider does while another thread waits for the database.
+ */
+public class FakeContactsProvider extends ContentProvider {
+
+    private static final int DATA = 1;
+    private static final int RAW_CONTACTS = 2;
+    private static final int CONTACTS = 3;
+    private static final int GROUPS = 4;
+    private static final int GROUPS_SUMMARY = 5;
+    private static final int PHONE_LOOKUP = 6;
+    private static final int DELETED_CONTACTS = 7;
+    private static final int CONTACT_LOOKUP = 8;
+
+    private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        URI_MATCHER.addURI(ContactsContract.AUTHORITY, "data", DATA);
+        URI_MATCHER.addURI(ContactsContract.AUTHORITY, "raw_contacts", RAW_CONTACTS);
+        URI_MATCHER.addURI(ContactsContract.AUTHORITY, "contacts", CONTACTS);
+        URI_MATCHER.addURI(ContactsContract.AUTHORITY, "groups", GROUPS);
+        URI_MATCHER.addURI(ContactsContract.AUTHORITY, "groups_summary", GROUPS_SUMMARY);
+        URI_MATCHER.addURI(ContactsContract.AUTHORITY, "phone_lookup/*", PHONE_LOOKUP);
+        URI_MATCHER.addURI(ContactsContract.AUTHORITY, "deleted_contacts", DELETED_CONTACTS);
+        URI_MATCHER.addURI(ContactsContract.AUTHORITY, "contacts/lookup/*", CONTACT_LOOKUP);
+    }
+
+    private static final int DATA_COLUMNS = 15;
+
+    private SQLiteDatabase db;
+    private boolean contended;
+
+    @Override
+    public boolean onCreate() {
+        db = SQLiteDatabase.create(null);
+
+        StringBuilder dataColumns = new StringBuilder();
+        StringBuilder dataViewColumns = new StringBuilder();
+        for (int i = 1; i <= DATA_COLUMNS; i++) {
+            dataColumns.append(", data").append(i).append(i == DATA_COLUMNS ? " BLOB" : " TEXT");
+            dataViewColumns.append(", d.data").append(i);
+        }
+
+        db.execSQL("CREATE TABLE contacts (_id INTEGER PRIMARY KEY, display_name TEXT, lookup TEXT, "
+                + "sort_key TEXT, sort_key_alt TEXT, contact_last_updated_timestamp INTEGER, photo_id INTEGER, photo_file_id INTEGER, "
+                + "in_visible_group INTEGER NOT NULL DEFAULT 1, has_phone_number INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE TABLE raw_contacts (_id INTEGER PRIMARY KEY AUTOINCREMENT, contact_id INTEGER, "
+                + "account_type TEXT, account_name TEXT, deleted INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE TABLE data_rows (_id INTEGER PRIMARY KEY AUTOINCREMENT, raw_contact_id INTEGER, "
+                + "mimetype TEXT, data_version INTEGER NOT NULL DEFAULT 0" + dataColumns + ")");
+        db.execSQL("CREATE TABLE groups (_id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT, "
+                + "account_type TEXT, account_name TEXT, group_visible INTEGER NOT NULL DEFAULT 1, "
+                + "deleted INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE TABLE deleted_contacts (contact_id INTEGER PRIMARY KEY, contact_deleted_timestamp INTEGER)");
+        db.execSQL("CREATE INDEX data_raw_contact_id ON data_rows (raw_contact_id)");
+        db.execSQL("CREATE INDEX data_mimetype_data1 ON data_rows (mimetype, data1)");
+        db.execSQL("CREATE INDEX raw_contacts_contact_id ON raw_contacts (contact_id)");
+        db.execSQL("CREATE INDEX raw_contacts_account ON raw_contacts (account_type, account_name)");
+
+        db.execSQL("CREATE VIEW data AS SELECT d._id AS _id, d.raw_contact_id AS raw_contact_id, "
+                + "r.contact_id AS contact_id, d.mimetype AS mimetype, d.data_version AS data_version" + dataViewColumns + ", "
+                + "c.display_name AS display_name, c.sort_key AS sort_key, c.sort_key_alt AS sort_key_alt, "
+                + "c.contact_last_updated_timestamp AS contact_last_updated_timestamp, "
+                + "c.photo_id AS photo_id, c.photo_file_id AS photo_file_id, "
+                + "c.in_visible_group AS in_visible_group, c.has_phone_number AS has_phone_number, "
+                + "r.account_type AS account_type, r.account_name AS account_name "
+                + "FROM data_rows d JOIN raw_contacts r ON d.raw_contact_id = r._id "
+                + "JOIN contacts c ON r.contact_id = c._id WHERE r.deleted = 0");
+        db.execSQL("CREATE VIEW groups_summary AS SELECT g.*, "
+                + "(SELECT COUNT(DISTINCT r.contact_id) FROM data_rows d "
+                + "JOIN raw_contacts r ON d.raw_contact_id = r._id "
+                + "WHERE d.mimetype = '" + GroupMembership.CONTENT_ITEM_TYPE + "' "
+                + "AND d.data1 = g._id AND r.deleted = 0) AS summ_count "
+                + "FROM groups g");
+        return true;
+    }
+
+    SQLiteDatabase getDatabase() {
+        return db;
+    }
+
+    void setContended(boolean contended) {
+        this.contended = contended;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (URI_MATCHER.match(uri) == PHONE_LOOKUP) {
+            return db.rawQuery("SELECT contact_id AS _id, display_name, data1 AS number, data2 AS type, data3 AS label "
+                            + "FROM data WHERE mimetype = ? AND REPLACE(data1, ' ', '') = ? ORDER BY contact_id",
+                    new String[]{Phone.CONTENT_ITEM_TYPE, uri.getLastPathSegment().replace(" ", "")});
+        }
+        if (URI_MATCHER.match(uri) == CONTACT_LOOKUP) {
+            return db.query("contacts", projection, "lookup = ?", new String[]{uri.getLastPathSegment()}, null, null, sortOrder);
+        }
+        return db.query(table(uri, true), projection, selection, selectionArgs, null, null, sortOrder,
+                uri.getQueryParameter(ContactsContract.LIMIT_PARAM_KEY));
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        long id;
+        switch (URI_MATCHER.match(uri)) {
+            case RAW_CONTACTS: {
+                // every raw contact gets a contact of its own, the provider does not aggregate
+                ContentValues rawContact = new ContentValues(values);
+                id = db.insert("raw_contacts", null, rawContact);
+                ContentValues contact = new ContentValues();
+                contact.put("_id", id);
+                contact.put("contact_last_updated_timestamp", System.currentTimeMillis());
+                db.insert("contacts", null, contact);
+                ContentValues link = new ContentValues();
+                link.put("contact_id", id);
+                db.update("raw_contacts", link, "_id=?", new String[]{String.valueOf(id)});
+                break;
+            }
+            case DATA:
+                id = db.insert("data_rows", null, values);
+                break;
+            default:
+                id = db.insert(table(uri, false), null, values);
+                break;
+        }
+        return id != -1 ? ContentUris.withAppendedId(uri, id) : null;
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        int yieldPoints = 0;
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (contended && i > 0 && operation.isYieldAllowed()) {
+                    db.setTransactionSuccessful();
+                    db.endTransaction();
+                    db.beginTransaction();
+                    yieldPoints++;
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            return results;
+        } catch (OperationApplicationException e) {
+            throw new OperationApplicationException(e.getMessage(), yieldPoints);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        switch (URI_MATCHER.match(uri)) {
+            case RAW_CONTACTS:
+                return deleteRawContacts(selection, selectionArgs);
+            case CONTACT_LOOKUP:
+                return deleteRawContacts("contact_id IN (SELECT _id FROM contacts WHERE lookup = ?)",
+                        new String[]{uri.getLastPathSegment()});
+            default:
+                return db.delete(table(uri, false), selection, selectionArgs);
+        }
+    }
+
+    private int deleteRawContacts(String selection, String[] selectionArgs) {
+        String rawContacts = "SELECT _id FROM raw_contacts" + (selection != null ? " WHERE " + selection : "");
+        db.beginTransaction();
+        try {
+            db.execSQL("CREATE TEMP TABLE IF NOT EXISTS deleting (_id INTEGER PRIMARY KEY)");
+            db.execSQL("DELETE FROM deleting");
+            db.execSQL("INSERT INTO deleting " + rawContacts, selectionArgs != null ? selectionArgs : new Object[0]);
+            db.execSQL("DELETE FROM data_rows WHERE raw_contact_id IN (SELECT _id FROM deleting)");
+            int count = db.delete("raw_contacts", "_id IN (SELECT _id FROM deleting)", null);
+            db.execSQL("INSERT OR REPLACE INTO deleted_contacts (contact_id, contact_deleted_timestamp) "
+                            + "SELECT _id, ? FROM contacts WHERE _id NOT IN (SELECT contact_id FROM raw_contacts WHERE contact_id IS NOT NULL)",
+                    new Object[]{System.currentTimeMillis()});
+            db.execSQL("DELETE FROM contacts WHERE _id NOT IN (SELECT contact_id FROM raw_contacts WHERE contact_id IS NOT NULL)");
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        return db.update(table(uri, false), values, selection, selectionArgs);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    private static String table(Uri uri, boolean read) {
+        switch (URI_MATCHER.match(uri)) {
+            case DATA:
+                return read ? "data" : "data_rows";
+            case RAW_CONTACTS:
+                return "raw_contacts";
+            case CONTACTS:
+                return "contacts";
+            case GROUPS:
+                return "groups";
+            case GROUPS_SUMMARY:
+                return "groups_summary";
+            case DELETED_CONTACTS:
+                return "deleted_contacts";
+            default:
+                throw new IllegalArgumentException("Unsupported URI " + uri);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ch.byrds.capacitor.contacts;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the photo downloads against a local HTTP server.
+ */
+public class PhotoFetcherTest {
+
+    private static final byte[] PHOTO = new byte[40 * 1024];
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void startServer() throws IOException {
+        for (int i = 0; i < PHOTO.length; i++) {
+            PHOTO[i] = (byte) i;
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/photo", exchange -> {
+            exchange.sendResponseHeaders(200, PHOTO.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(PHOTO);
+            }
+        });
+        server.createContext("/chunked", exchange -> {
+            // no content length, the size is only known while reading
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(PHOTO);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.sendResponseHeaders(200, PHOTO.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(PHOTO);
+            }
+        });
+        server.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void fetchesPhoto() throws Exception {
+        byte[] photo = new PhotoFetcher().fetch(baseUrl + "/photo");
+        assertArrayEquals(PHOTO, photo);
+    }
+
+    @Test
+    public void fetchesPhotoWithoutContentLength() throws Exception {
+        byte[] photo = new PhotoFetcher().fetch(baseUrl + "/chunked");
+        assertArrayEquals(PHOTO, photo);
+    }
+
+    @Test
+    public void rejectsPhotoAboveMaxBytes() {
+        PhotoFetcher fetcher = new PhotoFetcher(1000, 1000, PHOTO.length - 1);
+        assertThrows(IOException.class, () -> fetcher.fetch(baseUrl + "/photo"));
+        assertThrows(IOException.class, () -> fetcher.fetch(baseUrl + "/chunked"));
+    }
+
+    @Test
+    public void timesOutOnSlowServer() {
+        PhotoFetcher fetcher = new PhotoFetcher(1000, 200, PhotoFetcher.DEFAULT_MAX_BYTES);
+        assertThrows(SocketTimeoutException.class, () -> fetcher.fetch(baseUrl + "/slow"));
+    }
+
+    @Test
+    public void failsOnHttpError() {
+        assertThrows(IOException.class, () -> new PhotoFetcher().fetch(baseUrl + "/missing"));
+    }
+}
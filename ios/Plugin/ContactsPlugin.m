@@ -7,4 +7,23 @@ CAP_PLUGIN(ContactsPlugin, "Contacts",
            CAP_PLUGIN_METHOD(getPermissions, CAPPluginReturnPromise);
            CAP_PLUGIN_METHOD(getContacts, CAPPluginReturnPromise);
            CAP_PLUGIN_METHOD(saveContact, CAPPluginReturnPromise);
+           // Android only, rejected as unimplemented
+           CAP_PLUGIN_METHOD(getSectionIndex, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(getContactChanges, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(getContactFingerprints, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(getContactsByIds, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(getContactPhotos, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(searchContacts, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(findDuplicates, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(lookupByPhoneNumber, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(exportContacts, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(cancel, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(setSnapshotCache, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(setMetricsEnabled, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(getMetrics, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(resetMetrics, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(getGroups, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(getContactGroups, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(saveContacts, CAPPluginReturnPromise);
+           CAP_PLUGIN_METHOD(deleteContacts, CAPPluginReturnPromise);
 )
@@ -39,6 +39,11 @@ public class ContactsPlugin: CAPPlugin {
     }
 
     @objc func getContacts(_ call: CAPPluginCall) {
+        // the result would silently ignore them, e.g. miss the columns of format "columnar"
+        for option in ["pageSize", "sortBy", "offset", "parallelism", "format"] where call.hasOption(option) {
+            call.unimplemented("getContacts option \(option) - Not implemented on iOS.")
+            return
+        }
         var contactsArray: [PluginCallResultData] = []
         Permissions.contactPermission { granted in
             if granted {
@@ -564,4 +569,78 @@ public class ContactsPlugin: CAPPlugin {
             }
         }
     }
+
+    // Android only, see the @platform tags in definitions.ts
+
+    @objc func getSectionIndex(_ call: CAPPluginCall) {
+        call.unimplemented("getSectionIndex - Not implemented on iOS.")
+    }
+
+    @objc func getContactChanges(_ call: CAPPluginCall) {
+        call.unimplemented("getContactChanges - Not implemented on iOS.")
+    }
+
+    @objc func getContactFingerprints(_ call: CAPPluginCall) {
+        call.unimplemented("getContactFingerprints - Not implemented on iOS.")
+    }
+
+    @objc func getContactsByIds(_ call: CAPPluginCall) {
+        call.unimplemented("getContactsByIds - Not implemented on iOS.")
+    }
+
+    @objc func getContactPhotos(_ call: CAPPluginCall) {
+        call.unimplemented("getContactPhotos - Not implemented on iOS.")
+    }
+
+    @objc func searchContacts(_ call: CAPPluginCall) {
+        call.unimplemented("searchContacts - Not implemented on iOS.")
+    }
+
+    @objc func findDuplicates(_ call: CAPPluginCall) {
+        call.unimplemented("findDuplicates - Not implemented on iOS.")
+    }
+
+    @objc func lookupByPhoneNumber(_ call: CAPPluginCall) {
+        call.unimplemented("lookupByPhoneNumber - Not implemented on iOS.")
+    }
+
+    @objc func exportContacts(_ call: CAPPluginCall) {
+        call.unimplemented("exportContacts - Not implemented on iOS.")
+    }
+
+    @objc func cancel(_ call: CAPPluginCall) {
+        call.unimplemented("cancel - Not implemented on iOS.")
+    }
+
+    @objc func setSnapshotCache(_ call: CAPPluginCall) {
+        call.unimplemented("setSnapshotCache - Not implemented on iOS.")
+    }
+
+    @objc func setMetricsEnabled(_ call: CAPPluginCall) {
+        call.unimplemented("setMetricsEnabled - Not implemented on iOS.")
+    }
+
+    @objc func getMetrics(_ call: CAPPluginCall) {
+        call.unimplemented("getMetrics - Not implemented on iOS.")
+    }
+
+    @objc func resetMetrics(_ call: CAPPluginCall) {
+        call.unimplemented("resetMetrics - Not implemented on iOS.")
+    }
+
+    @objc func getGroups(_ call: CAPPluginCall) {
+        call.unimplemented("getGroups - Not implemented on iOS.")
+    }
+
+    @objc func getContactGroups(_ call: CAPPluginCall) {
+        call.unimplemented("getContactGroups - Not implemented on iOS.")
+    }
+
+    @objc func saveContacts(_ call: CAPPluginCall) {
+        call.unimplemented("saveContacts - Not implemented on iOS.")
+    }
+
+    @objc func deleteContacts(_ call: CAPPluginCall) {
+        call.unimplemented("deleteContacts - Not implemented on iOS.")
+    }
 }
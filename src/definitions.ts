@@ -4,10 +4,643 @@
 //   }
 // }
 
+import type { PluginListenerHandle } from '@capacitor/core';
+
 export interface ContactsPlugin {
   getPermissions(): Promise<PermissionStatus>;
-  getContacts(): Promise<{ contacts: Contact[] }>;
+  /**
+   * Reads the contacts of the device.
+   *
+   * When `pageSize` is set, the contacts are emitted in chunks through the
+   * `contactsChunk` event and the resolved `contacts` array is empty.
+   */
+  getContacts(options?: GetContactsOptions): Promise<GetContactsResult>;
+  /**
+   * Reads the alphabetical sections of the contacts for fast-scroll headers.
+   * The offsets match `getContacts` windows with the same `sortBy`,
+   * `visibleOnly` and `hasPhoneNumber` options.
+   *
+   * @platform android
+   */
+  getSectionIndex(options?: GetSectionIndexOptions): Promise<SectionIndex>;
+  /**
+   * Reads the contacts changed and deleted after `since`.
+   *
+   * Pass the returned `watermark` as `since` of the next call.
+   *
+   * @platform android
+   */
+  getContactChanges(
+    options: GetContactChangesOptions,
+  ): Promise<GetContactChangesResult>;
+  /**
+   * Computes a hash per contact of its names, phone numbers, emails,
+   * organization, birthday and photo, without transferring the contacts.
+   * Compare them with the hashes stored on a server and read the changed
+   * contacts with `getContactsByIds`.
+   *
+   * @platform android
+   */
+  getContactFingerprints(
+    options?: CancellableOptions,
+  ): Promise<GetContactFingerprintsResult>;
+  /**
+   * Reads the given contacts, sorted by contact id.
+   *
+   * @platform android
+   */
+  getContactsByIds(
+    options: GetContactsByIdsOptions,
+  ): Promise<GetContactsByIdsResult>;
+  /**
+   * Loads the photos of the given contacts on demand.
+   * Photos are cached in memory and in the app cache dir.
+   *
+   * @platform android
+   */
+  getContactPhotos(
+    options: GetContactPhotosOptions,
+  ): Promise<{ photos: ContactPhoto[]; metrics?: CallMetrics }>;
+  /**
+   * Searches contacts by name, email and phone number through a native index,
+   * built on the first call and updated when contacts change.
+   *
+   * @platform android
+   */
+  searchContacts(
+    options: SearchContactsOptions,
+  ): Promise<{ contacts: Contact[]; metrics?: CallMetrics }>;
+  /**
+   * Finds candidate duplicates: contacts sharing a phone number, an email
+   * address or a display name, joined into clusters. Runs in one pass over
+   * the contacts, only the clusters are returned.
+   *
+   * @platform android
+   */
+  findDuplicates(
+    options?: FindDuplicatesOptions,
+  ): Promise<FindDuplicatesResult>;
+  /**
+   * Resolves phone numbers to contacts with the matching rules of the
+   * platform, e.g. to identify callers. Results, including numbers without a
+   * contact, are cached until the contacts change.
+   *
+   * @platform android
+   */
+  lookupByPhoneNumber(
+    options: LookupByPhoneNumberOptions,
+  ): Promise<LookupByPhoneNumberResult>;
+  /**
+   * Writes the contacts to a vCard or NDJSON file in the app files directory,
+   * optionally gzipped. Contacts are streamed to the file one by one, so the
+   * memory used does not grow with the number of contacts. Progress is
+   * emitted through the `exportContactsProgress` event.
+   *
+   * @platform android
+   */
+  exportContacts(
+    options?: ExportContactsOptions,
+  ): Promise<ExportContactsResult>;
+  /**
+   * Cancels a running read started with the given `callId`, which rejects
+   * with code `CANCELLED`.
+   *
+   * @platform android
+   */
+  cancel(options: { callId: string }): Promise<{ cancelled: boolean }>;
+  /**
+   * Enables a native cache of `getContacts` results, invalidated whenever the
+   * contacts change. While enabled, the `contactsChanged` event is emitted.
+   *
+   * @platform android
+   */
+  setSnapshotCache(options: SnapshotCacheOptions): Promise<void>;
+  /**
+   * Enables collecting metrics of all calls, read with `getMetrics`.
+   * Calls passing the `metrics` option are measured regardless.
+   * `getPermissions`, `setSnapshotCache`, `cancel` and the metrics methods
+   * do not read contacts and are not measured.
+   *
+   * @platform android
+   */
+  setMetricsEnabled(options: { enabled: boolean }): Promise<void>;
+  /**
+   * Metrics collected per method since the last `resetMetrics`.
+   *
+   * @platform android
+   */
+  getMetrics(): Promise<PluginMetrics>;
+  /** @platform android */
+  resetMetrics(): Promise<void>;
+  /** @platform android */
+  getGroups(
+    options?: GetGroupsOptions,
+  ): Promise<{ groups: Group[]; metrics?: CallMetrics }>;
+  /**
+   * Reads the group ids of each contact, keyed by contact id, restricted to
+   * the given groups and contacts.
+   *
+   * @platform android
+   */
+  getContactGroups(
+    options?: GetContactGroupsOptions & { includeGroups?: false },
+  ): Promise<ContactGroupMemberships>;
+  /**
+   * Reads the memberships together with the groups and their member counts.
+   *
+   * @platform android
+   */
+  getContactGroups(
+    options: GetContactGroupsOptions & { includeGroups: true },
+  ): Promise<GetContactGroupsResult>;
   saveContact(contact: NewContact): Promise<void>;
+  /**
+   * Creates or updates contacts directly in batches, without any system UI.
+   * Contacts with an `identifier` have the kinds of data they are saved with
+   * replaced, e.g. an update without `image` keeps the photo.
+   *
+   * @platform android
+   */
+  saveContacts(options: SaveContactsOptions): Promise<SaveContactsResult>;
+  /**
+   * Deletes contacts by id or lookup key, or all contacts of a group or
+   * account, in batched provider operations. `deleted` counts raw contacts,
+   * a contact joined from several accounts counts once per account.
+   *
+   * @platform android
+   */
+  deleteContacts(options: DeleteContactsOptions): Promise<{ deleted: number }>;
+  /** @platform android */
+  addListener(
+    eventName: 'contactsChunk',
+    listenerFunc: (chunk: ContactsChunk) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+  /** @platform android */
+  addListener(
+    eventName: 'contactsChanged',
+    listenerFunc: () => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+  /** @platform android */
+  addListener(
+    eventName: 'saveContactsProgress',
+    listenerFunc: (progress: Progress) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+  /** @platform android */
+  addListener(
+    eventName: 'deleteContactsProgress',
+    listenerFunc: (progress: DeleteProgress) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+  /** @platform android */
+  addListener(
+    eventName: 'exportContactsProgress',
+    listenerFunc: (progress: ExportProgress) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+}
+
+export interface Group {
+  groupId: string;
+  accountType: string | null;
+  accountName: string | null;
+  title: string | null;
+  /** Number of contacts in the group, set when read by `getContactGroups`. */
+  memberCount?: number;
+}
+
+export interface GetContactGroupsOptions extends CancellableOptions {
+  /** Only reads the members of these groups. */
+  groupIds?: string[];
+  /** Only reads the groups of these contacts. */
+  contactIds?: string[];
+  /** Also returns the groups, with their member counts. */
+  includeGroups?: boolean;
+}
+
+/** Group ids keyed by contact id. */
+export type ContactGroupMemberships = Record<string, string[]>;
+
+export interface GetContactGroupsResult {
+  /**
+   * The `groupIds` groups, or the groups of the `contactIds` contacts, or all
+   * groups when neither is set.
+   */
+  groups: Group[];
+  memberships: ContactGroupMemberships;
+  metrics?: CallMetrics;
+}
+
+export interface DeleteContactsOptions extends CancellableOptions {
+  contactIds?: string[];
+  lookupKeys?: string[];
+  /** Deletes the members of this group. */
+  groupId?: string;
+  /** Deletes the contacts of this account, of all its names if `accountName` is not set. */
+  accountType?: string;
+  /** Rejected without `accountType`. */
+  accountName?: string;
+}
+
+export interface DeleteProgress {
+  /** Ids, lookup keys or raw contacts handled so far. */
+  processed: number;
+  total: number;
+  /** Raw contacts deleted so far. */
+  deleted: number;
+}
+
+export interface SaveContactsOptions extends CancellableOptions {
+  contacts: NewContact[];
+  /**
+   * Contacts per transaction, defaults to 50. A batch with many data rows or
+   * large photos is written in smaller transactions.
+   */
+  batchSize?: number;
+  /** Account of the created contacts, the local account if not set. */
+  accountType?: string;
+  accountName?: string;
+}
+
+export interface SaveContactsResult {
+  /** One result per input contact, in input order. */
+  results: SavedContact[];
+  metrics?: CallMetrics;
+}
+
+export interface SavedContact {
+  /**
+   * Not set for a contact that was created by a batch which failed after
+   * committing it.
+   */
+  contactId?: string;
+  created?: boolean;
+  error?: string;
+}
+
+export interface Progress {
+  saved: number;
+  total: number;
+}
+
+export interface SnapshotCacheOptions {
+  enabled: boolean;
+  /** Memory limit of the cache, defaults to 8 MB. */
+  maxBytes?: number;
+}
+
+export type ContactField =
+  | 'phoneNumbers'
+  | 'emails'
+  | 'birthday'
+  | 'organization'
+  | 'photo';
+
+export interface CancellableOptions {
+  /** Id to pass to `cancel` to stop this call. */
+  callId?: string;
+  /** Adds the `metrics` of this call to its result. */
+  metrics?: boolean;
+}
+
+/**
+ * Restricts a read to contacts of an account and to visible contacts. The
+ * filters are evaluated by the contacts provider, so filtered rows are never
+ * read. With an account filter, only the data of that account's raw contacts
+ * is read for contacts joined from several accounts.
+ */
+export interface ContactFilterOptions {
+  accountType?: string;
+  accountName?: string;
+  /** Only contacts shown in contact lists, i.e. in a visible group. */
+  visibleOnly?: boolean;
+  /** Only contacts with at least one phone number. */
+  hasPhoneNumber?: boolean;
+}
+
+/**
+ * `displayName` and `displayNameAlternative` sort by the provider's sort keys
+ * of the "Given Family" and "Family, Given" names, `lastUpdated` sorts the
+ * most recently changed contacts first.
+ */
+export type ContactSortOrder =
+  | 'displayName'
+  | 'displayNameAlternative'
+  | 'lastUpdated';
+
+export interface GetSectionIndexOptions extends CancellableOptions {
+  /** Defaults to `displayName`. */
+  sortBy?: 'displayName' | 'displayNameAlternative';
+  visibleOnly?: boolean;
+  hasPhoneNumber?: boolean;
+}
+
+export interface ContactSection {
+  /** Initial letter of the section, as shown by the system contacts app. */
+  title: string;
+  count: number;
+  /** Offset of the first contact of the section. */
+  offset: number;
+}
+
+export interface SectionIndex {
+  sections: ContactSection[];
+  /** Number of contacts of all sections. */
+  count: number;
+  metrics?: CallMetrics;
+}
+
+export interface GetGroupsOptions extends CancellableOptions {
+  accountType?: string;
+  accountName?: string;
+  /** Only groups whose members are shown in contact lists. */
+  visibleOnly?: boolean;
+}
+
+export interface CallMetrics {
+  totalMs: number;
+  /** Time until the provider returned a cursor. */
+  queryMs: number;
+  /** Time spent reading and decoding rows. */
+  iterateMs: number;
+  /** Time spent building the JSON result. */
+  serializeMs: number;
+  rows: number;
+  contacts: number;
+  /** Size of the result without the metrics. */
+  payloadBytes: number;
+}
+
+export interface MethodMetrics extends CallMetrics {
+  calls: number;
+  errors: number;
+  /** Time spent handing results to the bridge. */
+  resolveMs: number;
+  maxTotalMs: number;
+}
+
+export interface PluginMetrics {
+  enabled: boolean;
+  /** Sums over all measured calls, by method name. */
+  methods: { [methodName: string]: MethodMetrics };
+}
+
+export interface GetContactsOptions
+  extends CancellableOptions,
+    ContactFilterOptions {
+  /**
+   * Data kinds to read besides `contactId` and `displayName`, all if not set.
+   * Fields that are not requested are never read from the provider.
+   * With `sortBy`, `offset` or `limit`, contacts without any of the requested
+   * fields are part of the result, so consecutive windows list the same
+   * contacts as one read.
+   */
+  fields?: ContactField[];
+  /**
+   * Emit contacts in chunks of this size through the `contactsChunk` event.
+   *
+   * @platform android
+   */
+  pageSize?: number;
+  /**
+   * Order of the contacts, by contact id if not set.
+   *
+   * @platform android
+   */
+  sortBy?: ContactSortOrder;
+  /**
+   * Number of contacts to skip. With `offset` or with `sortBy` and `limit`,
+   * the ids of the window are read first, sorted and limited by the provider,
+   * then only the data of these contacts.
+   *
+   * @platform android
+   */
+  offset?: number;
+  /** Maximum number of contacts to read. */
+  limit?: number;
+  /**
+   * Splits a read sorted by contact id into this many ranges of contacts,
+   * read and serialized in parallel, at most 4. The result is the same as
+   * with a serial read. Ignored with `sortBy`, `offset` or `limit`, and for
+   * address books below 2000 contacts, where splitting showed no consistent
+   * gain in the benchmark. Defaults to 1.
+   *
+   * @platform android
+   */
+  parallelism?: number;
+  /**
+   * `columnar` returns the contacts as `columns` and an empty `contacts`
+   * array, which is smaller to transfer. Decode them with `decodeContacts`.
+   *
+   * @platform android
+   */
+  format?: 'objects' | 'columnar';
+}
+
+/**
+ * Contacts encoded as one array per field. Phone numbers and emails are
+ * flattened with a count per contact. Labels and organizations are indices
+ * into `strings`, `-1` if not set. Columns of fields that were not requested
+ * are missing.
+ */
+export interface ContactColumns {
+  size: number;
+  strings: string[];
+  contactIds: number[];
+  displayNames: (string | null)[];
+  phoneCounts?: number[];
+  phoneLabels?: number[];
+  phoneNumbers?: string[];
+  emailCounts?: number[];
+  emailLabels?: number[];
+  emailAddresses?: string[];
+  birthdays?: (string | null)[];
+  organizationNames?: number[];
+  organizationRoles?: number[];
+  photoThumbnails?: (string | null)[];
+}
+
+export interface GetContactsResult {
+  contacts: Contact[];
+  /** The contacts, if read with `format: 'columnar'`. */
+  columns?: ContactColumns;
+  /** Number of contacts read, including the ones emitted as chunks. */
+  count?: number;
+  metrics?: CallMetrics;
+}
+
+export interface ContactFingerprint {
+  contactId: string;
+  /**
+   * Hex encoded hash of the contact data, changes whenever one of the
+   * hashed values changes. Not comparable across devices.
+   */
+  hash: string;
+  /** Timestamp in milliseconds of the last change of the contact. */
+  lastUpdated: number;
+}
+
+export interface GetContactFingerprintsResult {
+  /** Sorted by contact id. */
+  fingerprints: ContactFingerprint[];
+  metrics?: CallMetrics;
+}
+
+export interface GetContactsByIdsOptions
+  extends CancellableOptions,
+    ContactFilterOptions {
+  contactIds: string[];
+  /** Data kinds to read, all if not set. */
+  fields?: ContactField[];
+  /** See `GetContactsOptions.format`. */
+  format?: 'objects' | 'columnar';
+}
+
+export interface GetContactsByIdsResult extends GetContactsResult {
+  /** Requested contacts that do not exist, e.g. deleted since. */
+  missingContactIds: string[];
+}
+
+export interface GetContactChangesOptions
+  extends CancellableOptions,
+    ContactFilterOptions {
+  /** Timestamp in milliseconds, `0` reads every contact. */
+  since: number;
+  /** Data kinds to read for the changed contacts, all if not set. */
+  fields?: ContactField[];
+}
+
+export interface GetContactChangesResult {
+  /** Contacts created or updated after `since`. */
+  contacts: Contact[];
+  /** Ids of the contacts deleted after `since`. */
+  deletedContactIds: string[];
+  /** Latest change timestamp seen, to be used as next `since`. */
+  watermark: number;
+  metrics?: CallMetrics;
+}
+
+export interface SearchContactsOptions extends CancellableOptions {
+  /**
+   * Prefix of name or email tokens, or digits of a phone number. Phone numbers
+   * also match without country code.
+   */
+  query: string;
+  /** Maximum number of results, defaults to 20. */
+  limit?: number;
+}
+
+export type DuplicateStrategy = 'all' | 'phone' | 'email' | 'name';
+
+export interface FindDuplicatesOptions extends CancellableOptions {
+  /**
+   * Values compared, defaults to `all`. Phone numbers are compared by their
+   * last 9 digits, emails case insensitive and names without diacritics,
+   * punctuation and word order.
+   */
+  strategy?: DuplicateStrategy;
+}
+
+export interface DuplicateReason {
+  type: 'phone' | 'email' | 'name';
+  /** The value as stored in the first contact sharing it. */
+  value: string;
+  /** Number of contacts sharing the value. */
+  count: number;
+}
+
+export interface DuplicateCluster {
+  /** Sorted by contact id. */
+  contactIds: string[];
+  reasons: DuplicateReason[];
+}
+
+export interface FindDuplicatesResult {
+  clusters: DuplicateCluster[];
+  metrics?: CallMetrics;
+}
+
+export interface LookupByPhoneNumberOptions extends CancellableOptions {
+  numbers: string[];
+}
+
+export interface PhoneNumberMatch {
+  /** The number as passed in. */
+  number: string;
+  /** Missing if no contact has the number. */
+  contactId?: string;
+  displayName?: string | null;
+  /** Label of the matched phone number of the contact. */
+  label?: string;
+}
+
+export interface LookupByPhoneNumberResult {
+  /** One match per number, in input order. */
+  matches: PhoneNumberMatch[];
+  metrics?: CallMetrics;
+}
+
+export interface ExportContactsOptions
+  extends CancellableOptions,
+    ContactFilterOptions {
+  /**
+   * `vcf` writes vCard 3.0, `ndjson` one `Contact` object per line.
+   * Defaults to `vcf`.
+   */
+  format?: 'vcf' | 'ndjson';
+  /**
+   * File path relative to the app files directory, defaults to
+   * `contacts.vcf` or `contacts.ndjson`, with `.gz` appended if gzipped.
+   */
+  path?: string;
+  /** Compresses the file with gzip. */
+  gzip?: boolean;
+  /** Data kinds to export, all if not set. */
+  fields?: ContactField[];
+}
+
+export interface ExportContactsResult {
+  /** Absolute path of the written file. */
+  path: string;
+  /** File URL of the written file. */
+  uri: string;
+  /** Number of contacts written. */
+  count: number;
+  /** Size of the file in bytes. */
+  bytes: number;
+  metrics?: CallMetrics;
+}
+
+export interface ExportProgress {
+  /** Contacts written so far. */
+  exported: number;
+  /** Bytes written to the file so far. */
+  bytes: number;
+}
+
+export interface GetContactPhotosOptions extends CancellableOptions {
+  contactIds: string[];
+  /** Defaults to `thumbnail`. */
+  size?: 'thumbnail' | 'full';
+  /**
+   * `base64` returns data URLs, `file` returns file URLs of the cached photos
+   * to be loaded through `Capacitor.convertFileSrc`. Defaults to `base64`.
+   */
+  format?: 'base64' | 'file';
+}
+
+export interface ContactPhoto {
+  contactId: string;
+  /** Missing if the contact has no photo. */
+  photo?: string;
+}
+
+export interface ContactsChunk {
+  /** `callId` of the `getContacts` call, if set. */
+  callId?: string;
+  contacts: Contact[];
+  /** The contacts of the chunk, if read with `format: 'columnar'`. */
+  columns?: ContactColumns;
+  chunkIndex: number;
+  /** `true` for the last chunk of a `getContacts` call. */
+  done: boolean;
 }
 
 export interface PermissionStatus {
@@ -73,6 +706,8 @@ export interface Contact {
  * @see android-link...
  */
 export interface NewContact {
+  /** Id of the contact to update, a new contact is created if not set. */
+  identifier?: string;
   contactType?: ContactType;
 
   // Name information
@@ -99,6 +734,9 @@ export interface NewContact {
   note?: string;
   socialProfiles?: SocialProfile[];
 
-  /** Base64 image */
+  /**
+   * Image URL, data: URL or Base64 image. Downscaled to the thumbnail size
+   * of the device before it is saved.
+   */
   image?: string;
 }
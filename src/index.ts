@@ -1,10 +1,130 @@
 import { registerPlugin } from '@capacitor/core';
 
-import type { ContactsPlugin } from './definitions';
+import type { Contact, ContactColumns, ContactsPlugin } from './definitions';
 
 const Contacts = registerPlugin<ContactsPlugin>('Contacts', {
   web: () => import('./web').then(m => new m.ContactsPluginWeb()),
 });
 
+/**
+ * Contacts of a `format: 'columnar'` result. A contact object is only built
+ * when it is accessed, and then kept.
+ */
+export class ColumnarContacts implements Iterable<Contact> {
+  readonly length: number;
+
+  private readonly columns: ContactColumns;
+  private readonly phoneOffsets?: number[];
+  private readonly emailOffsets?: number[];
+  private readonly contacts: (Contact | undefined)[];
+
+  constructor(columns: ContactColumns) {
+    this.columns = columns;
+    this.length = columns.size;
+    this.phoneOffsets = offsets(columns.phoneCounts);
+    this.emailOffsets = offsets(columns.emailCounts);
+    this.contacts = new Array(columns.size);
+  }
+
+  get(index: number): Contact {
+    let contact = this.contacts[index];
+    if (!contact) {
+      contact = this.decode(index);
+      this.contacts[index] = contact;
+    }
+    return contact;
+  }
+
+  *[Symbol.iterator](): Iterator<Contact> {
+    for (let i = 0; i < this.length; i++) {
+      yield this.get(i);
+    }
+  }
+
+  toArray(): Contact[] {
+    return Array.from(this);
+  }
+
+  private decode(index: number): Contact {
+    const c = this.columns;
+    const contact: Contact = {
+      contactId: String(c.contactIds[index]),
+      phoneNumbers: [],
+      emails: [],
+    };
+    const displayName = c.displayNames[index];
+    if (displayName !== null) {
+      contact.displayName = displayName;
+    }
+
+    if (this.phoneOffsets && c.phoneLabels && c.phoneNumbers) {
+      const end = this.phoneOffsets[index + 1];
+      for (let i = this.phoneOffsets[index]; i < end; i++) {
+        const label = this.string(c.phoneLabels[i]);
+        contact.phoneNumbers.push(
+          label !== undefined
+            ? { label, number: c.phoneNumbers[i] }
+            : { number: c.phoneNumbers[i] },
+        );
+      }
+    }
+    if (this.emailOffsets && c.emailLabels && c.emailAddresses) {
+      const end = this.emailOffsets[index + 1];
+      for (let i = this.emailOffsets[index]; i < end; i++) {
+        const label = this.string(c.emailLabels[i]);
+        contact.emails.push(
+          label !== undefined
+            ? { label, address: c.emailAddresses[i] }
+            : { address: c.emailAddresses[i] },
+        );
+      }
+    }
+
+    const birthday = c.birthdays ? c.birthdays[index] : null;
+    if (birthday !== null) {
+      contact.birthday = birthday;
+    }
+    if (c.organizationNames && c.organizationRoles) {
+      const organizationName = this.string(c.organizationNames[index]);
+      if (organizationName !== undefined) {
+        contact.organizationName = organizationName;
+      }
+      const organizationRole = this.string(c.organizationRoles[index]);
+      if (organizationRole !== undefined) {
+        contact.organizationRole = organizationRole;
+      }
+    }
+    const photoThumbnail = c.photoThumbnails ? c.photoThumbnails[index] : null;
+    if (photoThumbnail !== null) {
+      contact.photoThumbnail = photoThumbnail;
+    }
+    return contact;
+  }
+
+  private string(index: number): string | undefined {
+    return index >= 0 ? this.columns.strings[index] : undefined;
+  }
+}
+
+/**
+ * Wraps the `columns` of a columnar `getContacts` result or chunk.
+ */
+export function decodeContacts(columns: ContactColumns): ColumnarContacts {
+  return new ColumnarContacts(columns);
+}
+
+/** Start index of each contact's values, from the value count per contact. */
+function offsets(counts?: number[]): number[] | undefined {
+  if (!counts) {
+    return undefined;
+  }
+  const result = new Array<number>(counts.length + 1);
+  result[0] = 0;
+  for (let i = 0; i < counts.length; i++) {
+    result[i + 1] = result[i] + counts[i];
+  }
+  return result;
+}
+
 export * from './definitions';
 export { Contacts };
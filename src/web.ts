@@ -1,7 +1,39 @@
 import { WebPlugin } from '@capacitor/core';
 
 import type { NewContact } from '.';
-import type { ContactsPlugin, PermissionStatus, Contact } from './definitions';
+import type {
+  ContactsPlugin,
+  PermissionStatus,
+  GetContactsOptions,
+  GetContactsResult,
+  GetContactChangesOptions,
+  GetContactChangesResult,
+  GetContactPhotosOptions,
+  ContactPhoto,
+  SnapshotCacheOptions,
+  SearchContactsOptions,
+  Contact,
+  SaveContactsOptions,
+  SaveContactsResult,
+  DeleteContactsOptions,
+  Group,
+  CallMetrics,
+  CancellableOptions,
+  PluginMetrics,
+  GetContactGroupsOptions,
+  FindDuplicatesOptions,
+  FindDuplicatesResult,
+  ExportContactsOptions,
+  ExportContactsResult,
+  LookupByPhoneNumberOptions,
+  LookupByPhoneNumberResult,
+  GetContactFingerprintsResult,
+  GetContactsByIdsOptions,
+  GetContactsByIdsResult,
+  GetGroupsOptions,
+  GetSectionIndexOptions,
+  SectionIndex,
+} from './definitions';
 
 export class ContactsPluginWeb extends WebPlugin implements ContactsPlugin {
   constructor() {
@@ -12,14 +44,127 @@ export class ContactsPluginWeb extends WebPlugin implements ContactsPlugin {
     throw this.unimplemented('getPermissions - Not implemented on web.');
   }
 
-  async getContacts(): Promise<{ contacts: Contact[] }> {
+  // eslint-disable-next-line @typescript-eslint/no-unused-vars
+  async getContacts(_?: GetContactsOptions): Promise<GetContactsResult> {
     throw this.unimplemented('getContacts - Not implemented on web.');
   }
 
+  async getSectionIndex(
+    // eslint-disable-next-line @typescript-eslint/no-unused-vars
+    _?: GetSectionIndexOptions,
+  ): Promise<SectionIndex> {
+    throw this.unimplemented('getSectionIndex - Not implemented on web.');
+  }
+
+  async getContactChanges(
+    // eslint-disable-next-line @typescript-eslint/no-unused-vars
+    _: GetContactChangesOptions,
+  ): Promise<GetContactChangesResult> {
+    throw this.unimplemented('getContactChanges - Not implemented on web.');
+  }
+
+  async getContactFingerprints(
+    // eslint-disable-next-line @typescript-eslint/no-unused-vars
+    _?: CancellableOptions,
+  ): Promise<GetContactFingerprintsResult> {
+    throw this.unimplemented(
+      'getContactFingerprints - Not implemented on web.',
+    );
+  }
+
+  async getContactsByIds(
+    // eslint-disable-next-line @typescript-eslint/no-unused-vars
+    _: GetContactsByIdsOptions,
+  ): Promise<GetContactsByIdsResult> {
+    throw this.unimplemented('getContactsByIds - Not implemented on web.');
+  }
+
+  async getContactPhotos(
+    // eslint-disable-next-line @typescript-eslint/no-unused-vars
+    _: GetContactPhotosOptions,
+  ): Promise<{ photos: ContactPhoto[]; metrics?: CallMetrics }> {
+    throw this.unimplemented('getContactPhotos - Not implemented on web.');
+  }
+
+  async searchContacts(
+    // eslint-disable-next-line @typescript-eslint/no-unused-vars
+    _: SearchContactsOptions,
+  ): Promise<{ contacts: Contact[]; metrics?: CallMetrics }> {
+    throw this.unimplemented('searchContacts - Not implemented on web.');
+  }
+
+  async findDuplicates(
+    // eslint-disable-next-line @typescript-eslint/no-unused-vars
+    _?: FindDuplicatesOptions,
+  ): Promise<FindDuplicatesResult> {
+    throw this.unimplemented('findDuplicates - Not implemented on web.');
+  }
+
+  async lookupByPhoneNumber(
+    // eslint-disable-next-line @typescript-eslint/no-unused-vars
+    _: LookupByPhoneNumberOptions,
+  ): Promise<LookupByPhoneNumberResult> {
+    throw this.unimplemented('lookupByPhoneNumber - Not implemented on web.');
+  }
+
+  async exportContacts(
+    // eslint-disable-next-line @typescript-eslint/no-unused-vars
+    _?: ExportContactsOptions,
+  ): Promise<ExportContactsResult> {
+    throw this.unimplemented('exportContacts - Not implemented on web.');
+  }
+
+  // eslint-disable-next-line @typescript-eslint/no-unused-vars
+  async cancel(_: { callId: string }): Promise<{ cancelled: boolean }> {
+    throw this.unimplemented('cancel - Not implemented on web.');
+  }
+
+  // eslint-disable-next-line @typescript-eslint/no-unused-vars
+  async setSnapshotCache(_: SnapshotCacheOptions): Promise<void> {
+    throw this.unimplemented('setSnapshotCache - Not implemented on web.');
+  }
+
+  async getGroups(
+    // eslint-disable-next-line @typescript-eslint/no-unused-vars
+    _?: GetGroupsOptions,
+  ): Promise<{ groups: Group[]; metrics?: CallMetrics }> {
+    throw this.unimplemented('getGroups - Not implemented on web.');
+  }
+
+  // eslint-disable-next-line @typescript-eslint/no-unused-vars
+  async getContactGroups(_?: GetContactGroupsOptions): Promise<never> {
+    throw this.unimplemented('getContactGroups - Not implemented on web.');
+  }
+
+  // eslint-disable-next-line @typescript-eslint/no-unused-vars
+  async setMetricsEnabled(_: { enabled: boolean }): Promise<void> {
+    throw this.unimplemented('setMetricsEnabled - Not implemented on web.');
+  }
+
+  async getMetrics(): Promise<PluginMetrics> {
+    throw this.unimplemented('getMetrics - Not implemented on web.');
+  }
+
+  async resetMetrics(): Promise<void> {
+    throw this.unimplemented('resetMetrics - Not implemented on web.');
+  }
+
+  async deleteContacts(
+    // eslint-disable-next-line @typescript-eslint/no-unused-vars
+    _: DeleteContactsOptions,
+  ): Promise<{ deleted: number }> {
+    throw this.unimplemented('deleteContacts - Not implemented on web.');
+  }
+
   // eslint-disable-next-line @typescript-eslint/no-unused-vars
   async saveContact(_: NewContact): Promise<void> {
     throw this.unimplemented('saveContact - Not implemented on web.');
   }
+
+  // eslint-disable-next-line @typescript-eslint/no-unused-vars
+  async saveContacts(_: SaveContactsOptions): Promise<SaveContactsResult> {
+    throw this.unimplemented('saveContacts - Not implemented on web.');
+  }
 }
 
 const Contacts = new ContactsPluginWeb();